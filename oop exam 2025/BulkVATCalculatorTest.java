@@ -0,0 +1,133 @@
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BulkVATCalculatorTest {
+    private static final int INVOICES = 10_000;
+
+    private final TaxCategory[] categories = {new Retailer(), new Wholesaler(), new Importer()};
+    private double[] amounts;
+    private long[] amountCents;
+    private byte[] codes;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        amounts = new double[INVOICES];
+        amountCents = new long[INVOICES];
+        codes = new byte[INVOICES];
+        for (int i = 0; i < INVOICES; i++) {
+            amountCents[i] = random.nextInt(100_000_000);
+            amounts[i] = Money.toDouble(amountCents[i]);
+            codes[i] = (byte) random.nextInt(categories.length);
+        }
+    }
+
+    @Test
+    public void testCalculateVAT_MatchesPerInvoiceDispatch() {
+        double[] vat = new double[INVOICES];
+        BulkVATCalculator.calculateVAT(amounts, codes, vat, INVOICES);
+
+        for (int i = 0; i < INVOICES; i++) {
+            // exactly equal, not within a delta: both compute amount * the same rate
+            assertEquals("VAT on invoice " + i, categories[codes[i]].calculateVAT(amounts[i]), vat[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testCalculateVATCents_MatchesPerInvoiceDispatchForEveryMode() {
+        long[] vat = new long[INVOICES];
+        for (RoundingMode mode : RoundingMode.values()) {
+            if (mode == RoundingMode.UNNECESSARY) {
+                continue; // most invoices need rounding
+            }
+            BulkVATCalculator.calculateVATCents(amountCents, codes, vat, INVOICES, mode);
+            for (int i = 0; i < INVOICES; i++) {
+                assertEquals(mode + " VAT on invoice " + i,
+                        categories[codes[i]].calculateVATCents(amountCents[i], mode), vat[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateVAT_OnlyWritesTheFirstCountInvoices() {
+        double[] vat = new double[INVOICES];
+        Arrays.fill(vat, -1);
+        BulkVATCalculator.calculateVAT(amounts, codes, vat, 10);
+
+        assertEquals("Invoice 9 should be computed", categories[codes[9]].calculateVAT(amounts[9]), vat[9], 0.0);
+        assertEquals("Invoice 10 should be untouched", -1, vat[10], 0.0);
+    }
+
+    @Test
+    public void testCalculateVAT_RejectsCountBeyondAnyColumn() {
+        double[] vat = new double[INVOICES];
+        double[] shortVat = new double[INVOICES - 1];
+        byte[] shortCodes = Arrays.copyOf(codes, INVOICES - 1);
+        double[] shortAmounts = Arrays.copyOf(amounts, INVOICES - 1);
+
+        assertThrows("Short VAT column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVAT(amounts, codes, shortVat, INVOICES));
+        assertThrows("Short code column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVAT(amounts, shortCodes, vat, INVOICES));
+        assertThrows("Short amount column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVAT(shortAmounts, codes, vat, INVOICES));
+        assertThrows("Negative count", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVAT(amounts, codes, vat, -1));
+    }
+
+    @Test
+    public void testCalculateVATCents_RejectsCountBeyondAnyColumnOrAShortRateTable() {
+        long[] vat = new long[INVOICES];
+        long[] shortVat = new long[INVOICES - 1];
+        byte[] shortCodes = Arrays.copyOf(codes, INVOICES - 1);
+        long[] shortAmounts = Arrays.copyOf(amountCents, INVOICES - 1);
+
+        assertThrows("Short VAT column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, codes, shortVat, INVOICES, RoundingMode.HALF_UP));
+        assertThrows("Short code column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, shortCodes, vat, INVOICES, RoundingMode.HALF_UP));
+        assertThrows("Short amount column", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(shortAmounts, codes, vat, INVOICES, RoundingMode.HALF_UP));
+        assertThrows("Negative count", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, codes, vat, -1, RoundingMode.HALF_UP));
+        assertThrows("Rate table must cover every byte code", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, codes, vat, INVOICES, RoundingMode.HALF_UP,
+                        new int[255]));
+    }
+
+    @Test
+    public void testCalculateVAT_UnknownCodeGivesNaN() {
+        codes[5] = 7;
+        codes[6] = (byte) 200; // negative as a byte, still a valid table index
+        double[] vat = new double[INVOICES];
+        BulkVATCalculator.calculateVAT(amounts, codes, vat, INVOICES);
+
+        assertTrue("Unknown code 7 should give NaN", Double.isNaN(vat[5]));
+        assertTrue("Unknown code 200 should give NaN", Double.isNaN(vat[6]));
+        assertTrue("NaN should show up in the total", Double.isNaN(Arrays.stream(vat).sum()));
+        assertEquals("Known codes should be unaffected", categories[codes[4]].calculateVAT(amounts[4]), vat[4], 0.0);
+        assertTrue("rateOf should agree", Double.isNaN(BulkVATCalculator.rateOf((byte) 7)));
+        assertEquals("rateOf a known code", new Retailer().getRate(), BulkVATCalculator.rateOf(TaxCategory.RETAILER), 0.0);
+    }
+
+    @Test
+    public void testCalculateVATCents_UnknownCodeThrows() {
+        codes[5] = 7;
+        long[] vat = new long[INVOICES];
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, codes, vat, INVOICES, RoundingMode.HALF_UP));
+        assertTrue("Message should name the invoice", e.getMessage().contains("at invoice 5"));
+
+        int[] rates = new int[256];
+        Arrays.fill(rates, -1);
+        rates[TaxCategory.RETAILER] = 1800;
+        codes[5] = TaxCategory.RETAILER;
+        assertThrows("A -1 entry in a registry table is unknown too", IllegalArgumentException.class,
+                () -> BulkVATCalculator.calculateVATCents(amountCents, codes, vat, INVOICES, RoundingMode.HALF_UP, rates));
+    }
+}
@@ -1,33 +1,232 @@
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Random;
+
 abstract class TaxCategory {
+    // category codes used in invoice columns
+    static final byte RETAILER = 0;
+    static final byte WHOLESALER = 1;
+    static final byte IMPORTER = 2;
+
     public abstract double calculateVAT(double amount);
+
+    public abstract byte getCode();
+
+    public abstract double getRate();
+
+    // the same rate in basis points (1800 = 18%), for exact money arithmetic
+    public abstract int getRateBasisPoints();
+
+    // VAT on an amount in UGX cents, exact and rounded to a whole cent by the given mode
+    public long calculateVATCents(long amountCents, RoundingMode mode) {
+        return Money.applyRate(amountCents, getRateBasisPoints(), mode);
+    }
 }
 
-//subclass retailer
-class Retailer extends TaxCategory {
-    @Override
-    public double calculateVAT(double amount) {
-        return amount * 0.18; 
+//subclass retailer; the rate comes from the registry, and RATE_BASIS_POINTS
+//only seeds TaxRateRegistry.DEFAULT until a rate file is loaded
+class Retailer extends RegisteredCategory {
+    static final int RATE_BASIS_POINTS = 1800;
+
+    // rates in force on the day of each call, in the shared registry
+    Retailer() {
+        this(TaxRateRegistry.DEFAULT, Clock.systemDefaultZone());
+    }
+
+    Retailer(TaxRateRegistry registry, Clock clock) {
+        super(registry, RETAILER, clock);
+    }
+
+    Retailer(TaxRateRegistry registry, LocalDate date) {
+        super(registry, RETAILER, date);
     }
 }
 //subclass wholesaler
-class Wholesaler extends TaxCategory {
-    @Override
-    public double calculateVAT(double amount) {
-        return amount * 0.15; 
+class Wholesaler extends RegisteredCategory {
+    static final int RATE_BASIS_POINTS = 1500;
+
+    Wholesaler() {
+        this(TaxRateRegistry.DEFAULT, Clock.systemDefaultZone());
+    }
+
+    Wholesaler(TaxRateRegistry registry, Clock clock) {
+        super(registry, WHOLESALER, clock);
+    }
+
+    Wholesaler(TaxRateRegistry registry, LocalDate date) {
+        super(registry, WHOLESALER, date);
     }
 }
 //subclass importer
-class Importer extends TaxCategory {
+class Importer extends RegisteredCategory {
+    static final int RATE_BASIS_POINTS = 1000;
+
+    Importer() {
+        this(TaxRateRegistry.DEFAULT, Clock.systemDefaultZone());
+    }
+
+    Importer(TaxRateRegistry registry, Clock clock) {
+        super(registry, IMPORTER, clock);
+    }
+
+    Importer(TaxRateRegistry registry, LocalDate date) {
+        super(registry, IMPORTER, date);
+    }
+}
+//any category in the rate registry, including ones added after deploy;
+//the rate is whatever the registry's current version has in force on the
+//clock's date at the time of the call, so a long-lived category picks up a
+//future-dated rate once its day comes
+class RegisteredCategory extends TaxCategory {
+    private final TaxRateRegistry registry;
+    private final byte code;
+    private final Clock clock;
+    private Lookup lookup; // last table and day seen and their rate; one immutable object so threads never mix two
+
+    RegisteredCategory(TaxRateRegistry registry, byte code, Clock clock) {
+        if (!registry.current().isKnown(code)) {
+            throw new IllegalArgumentException("no category with code " + code + " in the rate registry");
+        }
+        this.registry = registry;
+        this.code = code;
+        this.clock = clock;
+    }
+
+    // pinned to one day, e.g. to recompute VAT on past invoices
+    RegisteredCategory(TaxRateRegistry registry, byte code, LocalDate date) {
+        this(registry, code, Clock.fixed(date.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC));
+    }
+
     @Override
     public double calculateVAT(double amount) {
-        return amount * 0.10; 
+        return amount * getRate();
+    }
+
+    @Override
+    public byte getCode() {
+        return code;
+    }
+
+    @Override
+    public double getRate() {
+        return getRateBasisPoints() / (double) Money.BASIS_POINTS;
+    }
+
+    // searches the rate history only when a reload has swapped in a new
+    // table or the date has moved on
+    @Override
+    public int getRateBasisPoints() {
+        TaxRateRegistry.RateTable table = registry.current();
+        LocalDate date = LocalDate.now(clock);
+        long epochDay = date.toEpochDay();
+        Lookup last = lookup;
+        if (last != null && last.table == table && last.epochDay == epochDay) {
+            return last.basisPoints;
+        }
+        int basisPoints = table.basisPoints(code, date);
+        if (basisPoints == TaxRateRegistry.RateTable.UNKNOWN) {
+            throw new IllegalStateException("no rate for code " + code + " on " + date);
+        }
+        lookup = new Lookup(table, epochDay, basisPoints);
+        return basisPoints;
+    }
+
+    private static final class Lookup {
+        final TaxRateRegistry.RateTable table;
+        final long epochDay;
+        final int basisPoints;
+
+        Lookup(TaxRateRegistry.RateTable table, long epochDay, int basisPoints) {
+            this.table = table;
+            this.epochDay = epochDay;
+            this.basisPoints = basisPoints;
+        }
+    }
+}
+
+// VAT for a whole column of invoices at once. The rate comes from a registry
+// table indexed by category code instead of a virtual call per invoice, so
+// the loop has no branches and the JIT can unroll and vectorise it.
+class BulkVATCalculator {
+    // writes vat[i] = amounts[i] * rate of codes[i] for the first count invoices,
+    // with the rates in force on the day of the call in the shared registry;
+    // results are identical to calling calculateVAT on each invoice of a
+    // default category on the same day
+    public static void calculateVAT(double[] amounts, byte[] codes, double[] vat, int count) {
+        calculateVAT(amounts, codes, vat, count, TaxRateRegistry.DEFAULT.current().tableOn(LocalDate.now()));
+    }
+
+    // same with rates = RateTable.tableOn(date) for the batch; unknown codes
+    // give NaN, which shows up in totals instead of a silent 0
+    public static void calculateVAT(double[] amounts, byte[] codes, double[] vat, int count, int[] rates) {
+        if (count < 0 || count > amounts.length || count > codes.length || count > vat.length) {
+            throw new IllegalArgumentException("count " + count + " exceeds a column length");
+        }
+        if (rates.length != 256) {
+            throw new IllegalArgumentException("rate table needs 256 entries, has " + rates.length);
+        }
+        // 256 entries so any byte code is in range and the bounds check goes away
+        double[] fractions = new double[256];
+        for (int code = 0; code < 256; code++) {
+            fractions[code] = rates[code] < 0 ? Double.NaN : rates[code] / (double) Money.BASIS_POINTS;
+        }
+        for (int i = 0; i < count; i++) {
+            vat[i] = amounts[i] * fractions[codes[i] & 0xFF];
+        }
+    }
+
+    // exact version over amounts in UGX cents, with today's rates in the shared
+    // registry; results equal calculateVATCents on each invoice
+    public static void calculateVATCents(long[] amounts, byte[] codes, long[] vat, int count, RoundingMode mode) {
+        calculateVATCents(amounts, codes, vat, count, mode, TaxRateRegistry.DEFAULT.current().tableOn(LocalDate.now()));
+    }
+
+    // same with rates from the registry: rates is RateTable.tableOn(date) for the
+    // batch, taken once so every invoice in it uses one version of the rates
+    public static void calculateVATCents(long[] amounts, byte[] codes, long[] vat, int count, RoundingMode mode,
+                                         int[] rates) {
+        if (count < 0 || count > amounts.length || count > codes.length || count > vat.length) {
+            throw new IllegalArgumentException("count " + count + " exceeds a column length");
+        }
+        if (rates.length != 256) {
+            throw new IllegalArgumentException("rate table needs 256 entries, has " + rates.length);
+        }
+        for (int i = 0; i < count; i++) {
+            int basisPoints = rates[codes[i] & 0xFF];
+            if (basisPoints < 0) {
+                throw new IllegalArgumentException("unknown category code " + codes[i] + " at invoice " + i);
+            }
+            vat[i] = Money.applyRate(amounts[i], basisPoints, mode);
+        }
+    }
+
+    // today's rate in the shared registry, NaN for an unknown code
+    public static double rateOf(byte code) {
+        int basisPoints = TaxRateRegistry.DEFAULT.current().basisPoints(code, LocalDate.now());
+        return basisPoints < 0 ? Double.NaN : basisPoints / (double) Money.BASIS_POINTS;
     }
 }
 
 
 public class EFRISTaxSystem {
     public static void main(String[] args) {
-        
+        // every category reads its rate from the shared registry: tax_rates.csv
+        // when it is there, the built-in rates otherwise
+        TaxRateRegistry registry = TaxRateRegistry.DEFAULT;
+        if (Files.exists(registry.getFile())) {
+            try {
+                registry.reload();
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Keeping built-in rates, " + registry.getFile() + " not loaded: " + e.getMessage());
+            }
+        }
+
         TaxCategory[] taxpayers = new TaxCategory[3];
         taxpayers[0] = new Retailer();
         taxpayers[1] = new Wholesaler();
@@ -41,5 +240,162 @@ public class EFRISTaxSystem {
             System.out.printf("Taxpayer Type %d: VAT on %.2f = %.2f%n",
                     i + 1, transactionAmounts[i], vat);
         }
+
+        // same invoices as columns through the bulk path
+        byte[] codes = new byte[taxpayers.length];
+        for (int i = 0; i < taxpayers.length; i++) {
+            codes[i] = taxpayers[i].getCode();
+        }
+        double[] vat = new double[taxpayers.length];
+        BulkVATCalculator.calculateVAT(transactionAmounts, codes, vat, taxpayers.length);
+        System.out.println("Bulk VAT: " + Arrays.toString(vat));
+
+        // and exactly, in cents with half-up rounding to the cent
+        long[] amountCents = new long[taxpayers.length];
+        for (int i = 0; i < taxpayers.length; i++) {
+            amountCents[i] = Money.fromDouble(transactionAmounts[i]);
+        }
+        long[] vatCents = new long[taxpayers.length];
+        BulkVATCalculator.calculateVATCents(amountCents, codes, vatCents, taxpayers.length, RoundingMode.HALF_UP);
+        for (int i = 0; i < taxpayers.length; i++) {
+            System.out.println("Exact VAT on " + Money.format(amountCents[i]) + " = " + Money.format(vatCents[i]));
+        }
+
+        TaxRateRegistry.RateTable rates = registry.current();
+        LocalDate today = LocalDate.now();
+        BulkVATCalculator.calculateVATCents(amountCents, codes, vatCents, taxpayers.length, RoundingMode.HALF_UP,
+                rates.tableOn(today));
+        System.out.println("Registry v" + rates.getVersion() + " VAT on " + today + ": " + Arrays.toString(vatCents));
+        for (int code = 0; code < 256; code++) {
+            if (code > TaxCategory.IMPORTER && rates.isKnown((byte) code)) {
+                TaxCategory extra = new RegisteredCategory(registry, (byte) code, today);
+                System.out.println("Extra category " + rates.nameOf((byte) code) + ": VAT on 1000.00 = "
+                        + Money.format(extra.calculateVATCents(Money.ofShillings(1000), RoundingMode.HALF_UP)));
+            }
+        }
     }
-}
\ No newline at end of file
+}
+
+// compares per-invoice calculateVAT through the three subclasses with the
+// bulk column path on the same invoices, in nanoseconds per invoice, then
+// the exact cents versions of both
+class VATBenchmark {
+    static final int INVOICES = 10_000_000;
+    static final int PASSES = 10;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        TaxCategory[] categories = {new Retailer(), new Wholesaler(), new Importer()};
+        double[] amounts = new double[INVOICES];
+        byte[] codes = new byte[INVOICES];
+        TaxCategory[] taxpayers = new TaxCategory[INVOICES];
+        for (int i = 0; i < INVOICES; i++) {
+            amounts[i] = random.nextInt(10_000_000) / 100.0;
+            codes[i] = (byte) random.nextInt(categories.length);
+            taxpayers[i] = categories[codes[i]];
+        }
+        double[] vat = new double[INVOICES];
+        long[] amountCents = new long[INVOICES];
+        for (int i = 0; i < INVOICES; i++) {
+            amountCents[i] = Money.fromDouble(amounts[i]);
+        }
+        long[] vatCents = new long[INVOICES];
+
+        for (int pass = 0; pass < 3; pass++) { // warmup
+            perInvoice(taxpayers, amounts, vat);
+            bulk(amounts, codes, vat);
+            perInvoiceCents(taxpayers, amountCents, vatCents);
+            bulkCents(amountCents, codes, vatCents);
+        }
+        System.out.println("=== VAT benchmark (" + INVOICES + " invoices, 3 categories mixed) ===");
+        long start = System.nanoTime();
+        double perInvoiceTotal = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            perInvoiceTotal = perInvoice(taxpayers, amounts, vat);
+        }
+        report("Per-invoice calculateVAT", start, perInvoiceTotal);
+        start = System.nanoTime();
+        double bulkTotal = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            bulkTotal = bulk(amounts, codes, vat);
+        }
+        report("BulkVATCalculator", start, bulkTotal);
+        System.out.println("Totals match: " + (perInvoiceTotal == bulkTotal));
+
+        start = System.nanoTime();
+        long perInvoiceCents = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            perInvoiceCents = perInvoiceCents(taxpayers, amountCents, vatCents);
+        }
+        reportCents("Per-invoice cents", start, perInvoiceCents);
+        start = System.nanoTime();
+        long bulkCents = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            bulkCents = bulkCents(amountCents, codes, vatCents);
+        }
+        reportCents("Bulk cents", start, bulkCents);
+        TaxRateRegistry registry = TaxRateRegistry.DEFAULT;
+        start = System.nanoTime();
+        long registryCents = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            // one version per batch, as the invoice pipeline would take it
+            int[] rates = registry.current().tableOn(LocalDate.now());
+            BulkVATCalculator.calculateVATCents(amountCents, codes, vatCents, INVOICES, RoundingMode.HALF_UP, rates);
+            registryCents = sum(vatCents);
+        }
+        reportCents("Bulk cents, registry", start, registryCents);
+        System.out.println("Exact totals match: " + (perInvoiceCents == bulkCents && bulkCents == registryCents)
+                + ", double total differs by " + Money.format(Money.fromDouble(bulkTotal) - bulkCents)
+                + " (unrounded per invoice)");
+    }
+
+    static long perInvoiceCents(TaxCategory[] taxpayers, long[] amounts, long[] vat) {
+        for (int i = 0; i < amounts.length; i++) {
+            vat[i] = taxpayers[i].calculateVATCents(amounts[i], RoundingMode.HALF_UP);
+        }
+        return sum(vat);
+    }
+
+    static long bulkCents(long[] amounts, byte[] codes, long[] vat) {
+        BulkVATCalculator.calculateVATCents(amounts, codes, vat, amounts.length, RoundingMode.HALF_UP);
+        return sum(vat);
+    }
+
+    static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total = Math.addExact(total, value);
+        }
+        return total;
+    }
+
+    static double perInvoice(TaxCategory[] taxpayers, double[] amounts, double[] vat) {
+        for (int i = 0; i < amounts.length; i++) {
+            vat[i] = taxpayers[i].calculateVAT(amounts[i]);
+        }
+        return sum(vat);
+    }
+
+    static double bulk(double[] amounts, byte[] codes, double[] vat) {
+        BulkVATCalculator.calculateVAT(amounts, codes, vat, amounts.length);
+        return sum(vat);
+    }
+
+    static double sum(double[] values) {
+        double total = 0;
+        for (double value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    static void report(String label, long start, double total) {
+        double nanos = (System.nanoTime() - start) / ((double) INVOICES * PASSES);
+        System.out.printf("%-26s %6.2f ns per invoice (VAT total %.2f)%n", label, nanos, total);
+    }
+
+    static void reportCents(String label, long start, long totalCents) {
+        double nanos = (System.nanoTime() - start) / ((double) INVOICES * PASSES);
+        System.out.printf("%-26s %6.2f ns per invoice (VAT total %s)%n", label, nanos, Money.format(totalCents));
+    }
+}
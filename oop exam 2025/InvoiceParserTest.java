@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InvoiceParserTest {
+    private static final String TIME = "2025-03-14T10:15:30Z";
+    private static final long SECONDS = Instant.parse(TIME).getEpochSecond();
+
+    private Path file;
+    private final List<long[]> invoices = new ArrayList<>(); // buyer, seller, cents, epoch seconds
+    private final List<String> rejects = new ArrayList<>();  // "line number|reason|line"
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("invoices", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static String csv(long buyer, long seller, String amount) {
+        return buyer + "," + seller + "," + amount + "," + TIME;
+    }
+
+    private static String json(long buyer, long seller, String amount) {
+        return "{\"buyerTIN\":\"" + buyer + "\",\"sellerTIN\":\"" + seller + "\",\"invoiceAmount\":" + amount
+                + ",\"transactionTimestamp\":\"" + TIME + "\"}";
+    }
+
+    private InvoiceParser parse(String content, InvoiceParser.Format format) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return parseFile(new InvoiceParser(), format);
+    }
+
+    private InvoiceParser parseFile(InvoiceParser parser, InvoiceParser.Format format) throws IOException {
+        invoices.clear();
+        rejects.clear();
+        parser.parse(file, format, batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                invoices.add(new long[] {batch.buyerTins[i], batch.sellerTins[i], batch.amountCents[i], batch.epochSeconds[i]});
+            }
+        }, (lineNumber, reason, line) -> rejects.add(lineNumber + "|" + reason + "|" + line));
+        return parser;
+    }
+
+    private void assertInvoice(String message, long buyer, long seller, long cents, long[] invoice) {
+        assertArrayEquals(message, new long[] {buyer, seller, cents, SECONDS}, invoice);
+    }
+
+    @Test
+    public void testParse_CsvAndNdjsonGiveTheSameInvoices() throws IOException {
+        InvoiceParser parser = parse("buyerTIN,sellerTIN,invoiceAmount,transactionTimestamp\n"
+                + csv(1000000001, 1000000002, "1234.50") + "\n"
+                + "\"7\",\"8\",\"0.05\",\"" + TIME + "\"\n", InvoiceParser.Format.CSV);
+        assertEquals("Accepted", 2, parser.getAccepted());
+        assertEquals("Header is not a reject", 0, parser.getRejected());
+        assertInvoice("CSV line", 1000000001, 1000000002, 123_450, invoices.get(0));
+        assertInvoice("Quoted CSV line", 7, 8, 5, invoices.get(1));
+
+        parse(json(1000000001, 1000000002, "1234.50") + "\n"
+                + "{ \"note\": \"a, b\" , \"sellerTIN\" : 8, \"transactionTimestamp\":\"" + TIME
+                + "\", \"invoiceAmount\":\"0.05\", \"buyerTIN\":7, \"flag\":true}\n", InvoiceParser.Format.NDJSON);
+        assertEquals("No rejects", List.of(), rejects);
+        assertInvoice("NDJSON line", 1000000001, 1000000002, 123_450, invoices.get(0));
+        assertInvoice("Keys in any order, other keys skipped", 7, 8, 5, invoices.get(1));
+    }
+
+    @Test
+    public void testParse_FinalLineWithoutNewline() throws IOException {
+        parse(csv(1, 2, "1.00") + "\n" + csv(3, 4, "2.00"), InvoiceParser.Format.CSV);
+        assertEquals("Both lines", 2, invoices.size());
+        assertInvoice("Last line", 3, 4, 200, invoices.get(1));
+
+        parse(json(3, 4, "2.00"), InvoiceParser.Format.NDJSON);
+        assertEquals("NDJSON last line", 1, invoices.size());
+
+        parse(csv(1, 2, "1.00") + "\n" + "1,2,-3.00," + TIME, InvoiceParser.Format.CSV);
+        assertEquals("A bad last line is rejected too", List.of("2|" + InvoiceParser.NEGATIVE_AMOUNT + "|1,2,-3.00," + TIME), rejects);
+    }
+
+    @Test
+    public void testParse_CrlfLineEndings() throws IOException {
+        InvoiceParser parser = parse("buyerTIN,sellerTIN,invoiceAmount,transactionTimestamp\r\n"
+                + csv(1, 2, "1.00") + "\r\n" + "\r\n" + "1,2,x," + TIME + "\r\n" + csv(3, 4, "2.00") + "\r\n",
+                InvoiceParser.Format.CSV);
+        assertEquals("Accepted", 2, parser.getAccepted());
+        assertInvoice("Line after a blank CRLF line", 3, 4, 200, invoices.get(1));
+        assertEquals("Rejected line is reported without its \\r",
+                List.of("4|" + InvoiceParser.BAD_AMOUNT + "|1,2,x," + TIME), rejects);
+
+        parse(json(1, 2, "1.00") + "\r\n" + json(3, 4, "2.00") + " \r\n", InvoiceParser.Format.NDJSON);
+        assertEquals("NDJSON with CRLF", 2, invoices.size());
+        assertEquals("No rejects", List.of(), rejects);
+    }
+
+    @Test
+    public void testParse_MalformedFieldsReachTheRejectHandler() throws IOException {
+        String[][] csvCases = {
+            {"0123,2,1.00," + TIME, InvoiceParser.BAD_BUYER_TIN},
+            {"x,2,1.00," + TIME, InvoiceParser.BAD_BUYER_TIN},
+            {"1234567890123456789,2,1.00," + TIME, InvoiceParser.BAD_BUYER_TIN}, // 19 digits
+            {"1,,1.00," + TIME, InvoiceParser.BAD_SELLER_TIN},
+            {"1,\"2,1.00," + TIME, InvoiceParser.BAD_SELLER_TIN},
+            {"1,2,1.005," + TIME, InvoiceParser.BAD_AMOUNT},
+            {"1,2,1.," + TIME, InvoiceParser.BAD_AMOUNT},
+            {"1,2,.50," + TIME, InvoiceParser.BAD_AMOUNT},
+            {"1,2,12345678901234567.00," + TIME, InvoiceParser.BAD_AMOUNT}, // 17 whole digits
+            {"1,2,-1.00," + TIME, InvoiceParser.NEGATIVE_AMOUNT},
+            {"1,2,1.00,2025-02-29T10:15:30Z", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00,2025-13-01T10:15:30Z", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00,2025-03-14T24:00:00Z", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00,2025-03-14T10:15:30+19:00", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00,2025-03-14T10:15:30.Z", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00,2025/03/14T10:15:30Z", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00," + TIME + "junk", InvoiceParser.BAD_TIMESTAMP},
+            {"1,2,1.00", InvoiceParser.WRONG_FIELD_COUNT},
+            {"1,2,1.00," + TIME + ",5", InvoiceParser.WRONG_FIELD_COUNT},
+        };
+        StringBuilder content = new StringBuilder(csv(1, 2, "1.00")).append('\n');
+        for (String[] c : csvCases) {
+            content.append(c[0]).append('\n');
+        }
+        InvoiceParser parser = parse(content.toString(), InvoiceParser.Format.CSV);
+        assertEquals("Only the good line", 1, parser.getAccepted());
+        assertEquals("Every bad line", csvCases.length, parser.getRejected());
+        for (int i = 0; i < csvCases.length; i++) {
+            assertEquals(csvCases[i][0], (i + 2) + "|" + csvCases[i][1] + "|" + csvCases[i][0], rejects.get(i));
+        }
+
+        String[][] jsonCases = {
+            {"{\"buyerTIN\":\"0\",\"sellerTIN\":\"2\",\"invoiceAmount\":1,\"transactionTimestamp\":\"" + TIME + "\"}",
+                InvoiceParser.BAD_BUYER_TIN},
+            {"{\"buyerTIN\":1,\"sellerTIN\":\"2\",\"invoiceAmount\":\"1.2.3\",\"transactionTimestamp\":\"" + TIME + "\"}",
+                InvoiceParser.BAD_AMOUNT},
+            {"{\"buyerTIN\":1,\"sellerTIN\":2,\"invoiceAmount\":1,\"transactionTimestamp\":\"2025-03-32T10:15:30Z\"}",
+                InvoiceParser.BAD_TIMESTAMP},
+            {"{\"buyerTIN\":1,\"sellerTIN\":2,\"invoiceAmount\":1}", InvoiceParser.MISSING_FIELD},
+            {"{\"buyerTIN\":1,\"nested\":{\"a\":1}}", InvoiceParser.MALFORMED_JSON},
+            {"[1,2]", InvoiceParser.MALFORMED_JSON},
+            {"{\"buyerTIN\":1", InvoiceParser.MALFORMED_JSON},
+        };
+        content.setLength(0);
+        for (String[] c : jsonCases) {
+            content.append(c[0]).append('\n');
+        }
+        parse(content.toString(), InvoiceParser.Format.NDJSON);
+        for (int i = 0; i < jsonCases.length; i++) {
+            assertEquals(jsonCases[i][0], (i + 1) + "|" + jsonCases[i][1] + "|" + jsonCases[i][0], rejects.get(i));
+        }
+    }
+
+    @Test
+    public void testParse_TimestampForms() throws IOException {
+        parse("1,2,1.00,2025-03-14 10:15:30\n"
+                + "1,2,1.00,2025-03-14T13:15:30.123+03:00\n"
+                + "1,2,1.00,2025-03-14T07:45:30-02:30\n"
+                + "1,2,1.00,2024-02-29T00:00:00Z\n", InvoiceParser.Format.CSV);
+        assertEquals("No rejects", List.of(), rejects);
+        assertEquals("Space separator, no offset is UTC", SECONDS, invoices.get(0)[3]);
+        assertEquals("Positive offset, fraction dropped", SECONDS, invoices.get(1)[3]);
+        assertEquals("Negative offset with minutes", SECONDS, invoices.get(2)[3]);
+        assertEquals("Leap day", Instant.parse("2024-02-29T00:00:00Z").getEpochSecond(), invoices.get(3)[3]);
+    }
+
+    @Test
+    public void testParse_ReusesOneBatchAndResetsBetweenFiles() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= 7; i++) {
+            content.append(csv(i, 100 + i, i + ".00")).append('\n');
+        }
+        Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII));
+
+        InvoiceParser parser = new InvoiceParser(3);
+        List<InvoiceBatch> seen = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        List<Long> firstBuyers = new ArrayList<>();
+        InvoiceRejectHandler none = (lineNumber, reason, line) -> fail("unexpected reject: " + line);
+        parser.parse(file, InvoiceParser.Format.CSV, batch -> {
+            seen.add(batch);
+            sizes.add(batch.size());
+            firstBuyers.add(batch.buyerTins[0]);
+        }, none);
+
+        assertEquals("Full batches then the partial one", List.of(3, 3, 1), sizes);
+        assertEquals("Each hand-off is refilled from the start", List.of(1L, 4L, 7L), firstBuyers);
+        assertSame("Same batch object every time", seen.get(0), seen.get(2));
+        assertEquals("Batch is cleared after the last hand-off", 0, seen.get(0).size());
+
+        seen.clear();
+        sizes.clear();
+        parser.parse(file, InvoiceParser.Format.CSV, batch -> {
+            seen.add(batch);
+            sizes.add(batch.size());
+        }, none);
+        assertEquals("Second file starts from an empty batch", List.of(3, 3, 1), sizes);
+        assertEquals("Counts are per file", 7, parser.getAccepted());
+
+        TransactionRecord record = new TransactionRecord();
+        InvoiceBatch batch = new InvoiceBatch(2);
+        batch.add(5, 6, 123_450, SECONDS);
+        batch.toRecord(0, record);
+        assertEquals("Record buyer", "5", record.getBuyerTIN());
+        assertEquals("Record amount", 123_450, record.getInvoiceAmountCents());
+        assertEquals("Record timestamp", TIME, record.getTransactionTimestamp());
+        assertThrows("Past the batch size", IndexOutOfBoundsException.class, () -> batch.toRecord(1, record));
+    }
+
+    @Test
+    public void testParse_DigitRunAtEveryLength() throws IOException {
+        // digitRun reads eight bytes a time: runs of 1-18 digits cover a
+        // short word, exactly one and two full words, and a word and a half
+        StringBuilder content = new StringBuilder();
+        long[] tins = new long[18];
+        String[] amounts = new String[18];
+        long tin = 0;
+        for (int digits = 1; digits <= 18; digits++) {
+            tin = tin * 10 + digits % 9 + 1;
+            tins[digits - 1] = tin;
+            amounts[digits - 1] = digits <= 16 ? Long.toString(tin).substring(0, digits) + ".5" : "0.5";
+            content.append(csv(tin, tin, amounts[digits - 1])).append('\n');
+        }
+        parse(content.toString(), InvoiceParser.Format.CSV);
+        assertEquals("No rejects", List.of(), rejects);
+        for (int i = 0; i < 18; i++) {
+            long cents = Long.parseLong(amounts[i].substring(0, amounts[i].length() - 2)) * 100 + 50;
+            assertInvoice((i + 1) + " digits", tins[i], tins[i], cents, invoices.get(i));
+        }
+        parse(csv(999_999_999_999_999_999L, 1, "9999999999999999.99") + "\n", InvoiceParser.Format.CSV);
+        assertInvoice("Largest TIN and amount", 999_999_999_999_999_999L, 1, 999_999_999_999_999_999L, invoices.get(0));
+    }
+
+    @Test
+    public void testParse_NextNewlineAtEveryOffset() throws IOException {
+        // rejected lines are skipped with nextNewline; lengths 1-17 put the
+        // newline at every byte of a word and on both sides of a word edge
+        StringBuilder content = new StringBuilder();
+        for (int length = 1; length <= 17; length++) {
+            content.append("x".repeat(length)).append('\n');
+        }
+        content.append(csv(1, 2, "1.00"));
+        InvoiceParser parser = parse(content.toString(), InvoiceParser.Format.CSV);
+        assertEquals("Every junk line", 16, parser.getRejected()); // line 1 is taken as a header
+        for (int length = 2; length <= 17; length++) {
+            assertEquals("Line of " + length, length + "|" + InvoiceParser.BAD_BUYER_TIN + "|" + "x".repeat(length),
+                    rejects.get(length - 2));
+        }
+        assertEquals("Line after them", 1, invoices.size());
+    }
+
+    @Test
+    public void testParse_LinesAcrossTheChunkBoundary() throws IOException {
+        // a padded first line moves one record across the 1 MB chunk end a
+        // byte at a time: cut inside it, its newline last in the chunk, its
+        // newline (or \r\n) split from it, and starting right at the next chunk
+        for (String ending : new String[] {"\n", "\r\n"}) {
+            for (InvoiceParser.Format format : InvoiceParser.Format.values()) {
+                boolean csv = format == InvoiceParser.Format.CSV;
+                String record = (csv ? csv(1234567, 7654321, "12.34") : json(1234567, 7654321, "12.34")) + ending;
+                String after = csv ? csv(3, 4, "2.00") : json(3, 4, "2.00");
+                for (int start = InvoiceParser.CHUNK - record.length() - 1; start <= InvoiceParser.CHUNK; start++) {
+                    String content = padded(format, start, ending) + record + after;
+                    InvoiceParser parser = parse(content, format);
+                    String message = format + " " + ending.length() + "-byte ending at " + start;
+                    assertEquals(message + " rejects", List.of(), rejects);
+                    assertEquals(message + " accepted", 3, parser.getAccepted());
+                    assertInvoice(message + " padded line", 1, 2, 100, invoices.get(0));
+                    assertInvoice(message, 1234567, 7654321, 1234, invoices.get(1));
+                    assertInvoice(message + " next line", 3, 4, 200, invoices.get(2));
+                }
+            }
+        }
+    }
+
+    // a valid invoice line exactly length bytes long, ending included: CSV
+    // pads the timestamp fraction, NDJSON an ignored key
+    private static String padded(InvoiceParser.Format format, int length, String ending) {
+        if (format == InvoiceParser.Format.CSV) {
+            String head = "1,2,1.00," + TIME.substring(0, TIME.length() - 1) + ".";
+            return head + "0".repeat(length - head.length() - 1 - ending.length()) + "Z" + ending;
+        }
+        String tail = "\",\"buyerTIN\":1,\"sellerTIN\":2,\"invoiceAmount\":1.00,\"transactionTimestamp\":\"" + TIME + "\"}";
+        String head = "{\"pad\":\"";
+        return head + "x".repeat(length - head.length() - tail.length() - ending.length()) + tail + ending;
+    }
+
+    @Test
+    public void testParse_LineLongerThanAChunkIsSkipped() throws IOException {
+        String content = csv(1, 2, "1.00") + "\n" + "9".repeat(InvoiceParser.CHUNK + 10) + "\n"
+                + "1,2,x," + TIME + "\n" + csv(3, 4, "2.00") + "\n";
+        InvoiceParser parser = parse(content, InvoiceParser.Format.CSV);
+        assertEquals("Lines around the long one", 2, parser.getAccepted());
+        assertEquals("Long line and the bad one", 2, parser.getRejected());
+        assertTrue("Long line reported as too long", rejects.get(0).startsWith("2|" + InvoiceParser.LINE_TOO_LONG + "|999"));
+        assertEquals("Line numbers continue after it", "3|" + InvoiceParser.BAD_AMOUNT + "|1,2,x," + TIME, rejects.get(1));
+    }
+
+    @Test
+    public void testParse_RecordsAcrossTheMappedWindowBoundary() throws IOException {
+        // a sparse file just over one 256 MB window: one valid line, a hole of
+        // zero bytes skipped as a too-long line, then records straddling the
+        // window end, so the parser has to map a second window to reach them
+        String first = csv(1, 2, "1.00") + "\n";
+        StringBuilder tail = new StringBuilder("\n");
+        for (int i = 0; i < 6; i++) {
+            tail.append(csv(1000 + i, 2000 + i, i + ".25")).append('\n');
+        }
+        tail.append(csv(9, 9, "9.99"));
+        byte[] tailBytes = tail.toString().getBytes(StandardCharsets.US_ASCII);
+        long tailStart = InvoiceParser.WINDOW - tailBytes.length / 2;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(first.getBytes(StandardCharsets.US_ASCII)), 0);
+            channel.write(ByteBuffer.wrap(tailBytes), tailStart);
+        }
+        assertTrue("File passes the window", Files.size(file) > InvoiceParser.WINDOW);
+
+        InvoiceParser parser = parseFile(new InvoiceParser(), InvoiceParser.Format.CSV);
+        assertEquals("Only the hole is rejected", 1, parser.getRejected());
+        assertTrue("Hole reported as too long", rejects.get(0).startsWith("2|" + InvoiceParser.LINE_TOO_LONG + "|"));
+        assertEquals("Every record", 8, parser.getAccepted());
+        assertInvoice("Line before the hole", 1, 2, 100, invoices.get(0));
+        for (int i = 0; i < 6; i++) {
+            assertInvoice("Record " + i + " near the window end", 1000 + i, 2000 + i, i * 100 + 25, invoices.get(1 + i));
+        }
+        assertInvoice("Last line, no newline", 9, 9, 999, invoices.get(7));
+    }
+}
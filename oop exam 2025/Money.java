@@ -0,0 +1,107 @@
+import java.math.RoundingMode;
+
+// UGX amounts held as a long count of cents. Everything here is a static
+// method on plain longs, so money arithmetic is exact and never allocates;
+// overflow throws ArithmeticException instead of wrapping.
+public final class Money {
+    public static final long CENTS_PER_SHILLING = 100;
+    public static final int BASIS_POINTS = 10_000; // 100% as a rate in basis points
+
+    private Money() {
+    }
+
+    public static long ofShillings(long shillings) {
+        return Math.multiplyExact(shillings, CENTS_PER_SHILLING);
+    }
+
+    // for code that still holds doubles: the nearest cent to the amount
+    public static long fromDouble(double amount) {
+        if (Double.isNaN(amount) || Math.abs(amount) >= Long.MAX_VALUE / 100.0) {
+            throw new ArithmeticException("amount out of range: " + amount);
+        }
+        return Math.round(amount * CENTS_PER_SHILLING);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_SHILLING;
+    }
+
+    // parses "1234", "1234.5" or "-1234.56" exactly, without going through double
+    public static long parse(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = length > 0 && text.charAt(0) == '-';
+        if (negative) {
+            i++;
+        }
+        long cents = 0;
+        int decimals = -1; // digits seen after the point, -1 before it
+        int digits = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9' && decimals < 2) {
+                cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                throw new NumberFormatException("not an amount with at most 2 decimals: " + text);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("not an amount: " + text);
+        }
+        for (int d = Math.max(decimals, 0); d < 2; d++) {
+            cents = Math.multiplyExact(cents, 10);
+        }
+        return negative ? -cents : cents;
+    }
+
+    public static String format(long cents) {
+        long whole = Math.abs(cents / CENTS_PER_SHILLING);
+        long fraction = Math.abs(cents % CENTS_PER_SHILLING);
+        return (cents < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    // cents * basisPoints / 10000, rounded to a whole cent by the given mode
+    public static long applyRate(long cents, int basisPoints, RoundingMode mode) {
+        long product = Math.multiplyExact(cents, (long) basisPoints);
+        if (mode == RoundingMode.HALF_UP) {
+            // the usual mode for VAT: add half a cent away from zero and truncate
+            return Math.addExact(product, product < 0 ? -BASIS_POINTS / 2 : BASIS_POINTS / 2) / BASIS_POINTS;
+        }
+        long quotient = product / BASIS_POINTS;
+        long remainder = product % BASIS_POINTS; // same sign as product
+        if (remainder == 0) {
+            return quotient;
+        }
+        long sign = product < 0 ? -1 : 1;
+        return roundsAway(mode, sign, Math.abs(remainder) * 2, quotient) ? quotient + sign : quotient;
+    }
+
+    // whether a quotient truncated toward zero moves one cent away from zero;
+    // twiceRemainder is compared with BASIS_POINTS to find the halfway point
+    private static boolean roundsAway(RoundingMode mode, long sign, long twiceRemainder, long quotient) {
+        switch (mode) {
+            case UP:
+                return true;
+            case DOWN:
+                return false;
+            case CEILING:
+                return sign > 0;
+            case FLOOR:
+                return sign < 0;
+            case HALF_UP:
+                return twiceRemainder >= BASIS_POINTS;
+            case HALF_DOWN:
+                return twiceRemainder > BASIS_POINTS;
+            case HALF_EVEN:
+                return twiceRemainder > BASIS_POINTS || (twiceRemainder == BASIS_POINTS && (quotient & 1) != 0);
+            default:
+                throw new ArithmeticException("rounding needed but mode is " + mode);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MoneyTest {
+
+    @Test
+    public void testParse_WholeAndDecimalAmounts() {
+        assertEquals("No decimals", 123_400, Money.parse("1234"));
+        assertEquals("One decimal", 123_450, Money.parse("1234.5"));
+        assertEquals("Two decimals", 123_456, Money.parse("1234.56"));
+        assertEquals("Trailing point", 123_400, Money.parse("1234."));
+        assertEquals("Leading point", 50, Money.parse(".5"));
+        assertEquals("Under a shilling", 5, Money.parse("0.05"));
+        assertEquals("Zero", 0, Money.parse("0"));
+    }
+
+    @Test
+    public void testParse_Sign() {
+        assertEquals("Negative", -123_456, Money.parse("-1234.56"));
+        assertEquals("Negative under a shilling", -5, Money.parse("-0.05"));
+        assertEquals("Negative zero", 0, Money.parse("-0.00"));
+    }
+
+    @Test
+    public void testParse_RejectsMalformedAmounts() {
+        for (String text : new String[] {"1.234", "", "-", ".", "-.", "1.2.3", "12a", "+1", "1,000", " 1", "--1"}) {
+            assertThrows("\"" + text + "\" should be rejected", NumberFormatException.class, () -> Money.parse(text));
+        }
+    }
+
+    @Test
+    public void testParse_OverflowThrows() {
+        assertEquals("Largest amount", Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+        assertThrows("One cent more", ArithmeticException.class, () -> Money.parse("92233720368547758.08"));
+        assertThrows("Too many digits", ArithmeticException.class, () -> Money.parse("99999999999999999999"));
+    }
+
+    @Test
+    public void testFormat_PadsCentsAndKeepsSign() {
+        assertEquals("Two decimals", "1234.56", Money.format(123_456));
+        assertEquals("Padded cents", "1234.05", Money.format(123_405));
+        assertEquals("Zero", "0.00", Money.format(0));
+        assertEquals("Under a shilling", "0.05", Money.format(5));
+        assertEquals("Tens of cents", "0.50", Money.format(50));
+        assertEquals("Negative", "-1234.56", Money.format(-123_456));
+        assertEquals("Negative under a shilling", "-0.05", Money.format(-5));
+        assertEquals("Negative tens of cents", "-0.50", Money.format(-50));
+        assertEquals("Smallest long", "-92233720368547758.08", Money.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testFormat_RoundTripsThroughParse() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long cents = random.nextLong() / 2;
+            assertEquals("Round trip of " + cents, cents, Money.parse(Money.format(cents)));
+        }
+    }
+
+    @Test
+    public void testApplyRate_EveryModeOnPositiveAndNegativeHalfway() {
+        // 25 cents at 10% is 2.5 cents, 35 cents is 3.5: exactly halfway between two cents
+        RoundingMode[] modes = {RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.FLOOR,
+                                RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN};
+        long[] twoAndAHalf = {3, 2, 3, 2, 3, 2, 2};
+        long[] minusTwoAndAHalf = {-3, -2, -2, -3, -3, -2, -2};
+        long[] threeAndAHalf = {4, 3, 4, 3, 4, 3, 4};
+        long[] minusThreeAndAHalf = {-4, -3, -3, -4, -4, -3, -4};
+        for (int m = 0; m < modes.length; m++) {
+            assertEquals(modes[m] + " of 2.5", twoAndAHalf[m], Money.applyRate(25, 1000, modes[m]));
+            assertEquals(modes[m] + " of -2.5", minusTwoAndAHalf[m], Money.applyRate(-25, 1000, modes[m]));
+            assertEquals(modes[m] + " of 3.5", threeAndAHalf[m], Money.applyRate(35, 1000, modes[m]));
+            assertEquals(modes[m] + " of -3.5", minusThreeAndAHalf[m], Money.applyRate(-35, 1000, modes[m]));
+        }
+    }
+
+    @Test
+    public void testApplyRate_Unnecessary() {
+        assertEquals("Exact result needs no rounding", 18, Money.applyRate(100, 1800, RoundingMode.UNNECESSARY));
+        assertThrows("Inexact result", ArithmeticException.class, () -> Money.applyRate(25, 1000, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    public void testApplyRate_MatchesBigDecimalForEveryMode() {
+        // HALF_UP takes a fast path; every mode must agree with BigDecimal.setScale
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long cents = random.nextInt(4) == 0 ? random.nextLong() / Money.BASIS_POINTS : random.nextInt(2_000_001) - 1_000_000;
+            int basisPoints = random.nextInt(Money.BASIS_POINTS + 1);
+            BigDecimal exact = BigDecimal.valueOf(cents).multiply(BigDecimal.valueOf(basisPoints)).movePointLeft(4);
+            for (RoundingMode mode : RoundingMode.values()) {
+                if (mode == RoundingMode.UNNECESSARY) {
+                    continue;
+                }
+                assertEquals(mode + " of " + cents + " at " + basisPoints + " bp",
+                        exact.setScale(0, mode).longValueExact(), Money.applyRate(cents, basisPoints, mode));
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowThrows() {
+        assertThrows("applyRate", ArithmeticException.class, () -> Money.applyRate(Long.MAX_VALUE, 1800, RoundingMode.HALF_UP));
+        assertThrows("applyRate, slow path", ArithmeticException.class,
+                () -> Money.applyRate(Long.MIN_VALUE / 2, 1800, RoundingMode.HALF_EVEN));
+        assertThrows("ofShillings", ArithmeticException.class, () -> Money.ofShillings(Long.MAX_VALUE / 10));
+        assertThrows("fromDouble", ArithmeticException.class, () -> Money.fromDouble(1e30));
+        assertThrows("fromDouble of NaN", ArithmeticException.class, () -> Money.fromDouble(Double.NaN));
+    }
+
+    @Test
+    public void testFromDouble_NearestCent() {
+        assertEquals("Binary fraction rounds to the nearest cent", 1, Money.fromDouble(0.01));
+        assertEquals("Large amount", 99_999_999, Money.fromDouble(999_999.99));
+        assertEquals("Negative", -123_456, Money.fromDouble(-1234.56));
+        assertEquals("Back to double", 1234.56, Money.toDouble(123_456), 0.0);
+    }
+}
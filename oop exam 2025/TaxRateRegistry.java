@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// VAT rates read from a config file, so a rate change is a file edit; the
+// subclass constants only seed a registry until its file is loaded. Every
+// category and the bulk calculator look rates up here, by default in
+// DEFAULT. Every load builds a new immutable RateTable and
+// swaps it in with one volatile write (copy-on-write): readers never lock, and
+// a batch that takes current() once sees a single version from start to end.
+//
+// File format, one rate per line, '#' starts a comment:
+//   code,name,effective from,basis points
+//   0,Retailer,2020-07-01,1800
+// A code may have several lines with different dates; the one in force on a
+// day is the latest that is not after it. Codes 3-255 add new categories.
+public class TaxRateRegistry {
+    // behind Retailer, Wholesaler, Importer and BulkVATCalculator unless given another
+    public static final TaxRateRegistry DEFAULT = new TaxRateRegistry(Path.of("tax_rates.csv"));
+
+    private final Path file;
+    private volatile RateTable current;
+    private FileTime loadedModified; // guarded by this
+
+    // starts from the built-in rates; call reload() to read the file
+    public TaxRateRegistry(Path file) {
+        this.file = file;
+        this.current = RateTable.defaults();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // lock-free: one volatile read
+    public RateTable current() {
+        return current;
+    }
+
+    // parses the file and swaps it in; on any error the old version stays
+    public synchronized RateTable reload() throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        RateTable next = RateTable.parse(Files.readAllLines(file, StandardCharsets.UTF_8), current.getVersion() + 1);
+        current = next;
+        loadedModified = modified;
+        return next;
+    }
+
+    // cheap enough to call between batches; only re-reads a file that changed
+    public synchronized boolean reloadIfChanged() throws IOException {
+        if (Files.getLastModifiedTime(file).equals(loadedModified)) {
+            return false;
+        }
+        reload();
+        return true;
+    }
+
+    // one immutable version of every category's rate history
+    public static final class RateTable {
+        public static final int UNKNOWN = -1;
+
+        private final long version;
+        private final String[] names = new String[256];
+        private final long[][] effectiveDays = new long[256][]; // ascending epoch days per code
+        private final int[][] basisPoints = new int[256][];
+
+        private RateTable(long version) {
+            this.version = version;
+        }
+
+        static RateTable defaults() {
+            List<String> lines = new ArrayList<>();
+            lines.add(TaxCategory.RETAILER + ",Retailer,1970-01-01," + Retailer.RATE_BASIS_POINTS);
+            lines.add(TaxCategory.WHOLESALER + ",Wholesaler,1970-01-01," + Wholesaler.RATE_BASIS_POINTS);
+            lines.add(TaxCategory.IMPORTER + ",Importer,1970-01-01," + Importer.RATE_BASIS_POINTS);
+            return parse(lines, 0);
+        }
+
+        static RateTable parse(List<String> lines, long version) {
+            RateTable table = new RateTable(version);
+            List<List<long[]>> entries = new ArrayList<>(); // per code: {epoch day, basis points}
+            for (int code = 0; code < 256; code++) {
+                entries.add(new ArrayList<>());
+            }
+            for (int n = 0; n < lines.size(); n++) {
+                String line = lines.get(n);
+                int hash = line.indexOf('#');
+                if (hash >= 0) {
+                    line = line.substring(0, hash);
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 4) {
+                    throw new IllegalArgumentException("line " + (n + 1) + ": expected code,name,date,basis points");
+                }
+                int code;
+                String name = fields[1].trim();
+                long day;
+                int rate;
+                try {
+                    code = Integer.parseInt(fields[0].trim());
+                    day = LocalDate.parse(fields[2].trim()).toEpochDay();
+                    rate = Integer.parseInt(fields[3].trim());
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    throw new IllegalArgumentException("line " + (n + 1) + ": " + e.getMessage(), e);
+                }
+                if (code < 0 || code > 255 || rate < 0 || rate > Money.BASIS_POINTS) {
+                    throw new IllegalArgumentException("line " + (n + 1) + ": code or rate out of range");
+                }
+                if (table.names[code] != null && !table.names[code].equals(name)) {
+                    throw new IllegalArgumentException("line " + (n + 1) + ": code " + code + " is already " + table.names[code]);
+                }
+                for (long[] entry : entries.get(code)) {
+                    if (entry[0] == day) {
+                        throw new IllegalArgumentException("line " + (n + 1) + ": two rates for " + name + " on " + fields[2].trim());
+                    }
+                }
+                table.names[code] = name;
+                entries.get(code).add(new long[]{day, rate});
+            }
+            for (int code = 0; code < 256; code++) {
+                List<long[]> history = entries.get(code);
+                if (history.isEmpty()) {
+                    continue;
+                }
+                history.sort((a, b) -> Long.compare(a[0], b[0]));
+                table.effectiveDays[code] = new long[history.size()];
+                table.basisPoints[code] = new int[history.size()];
+                for (int i = 0; i < history.size(); i++) {
+                    table.effectiveDays[code][i] = history.get(i)[0];
+                    table.basisPoints[code][i] = (int) history.get(i)[1];
+                }
+            }
+            return table;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String nameOf(byte code) {
+            return names[code & 0xFF];
+        }
+
+        public boolean isKnown(byte code) {
+            return names[code & 0xFF] != null;
+        }
+
+        // rate in force on the day, or UNKNOWN before the first date or for an unknown code
+        public int basisPoints(byte code, LocalDate date) {
+            long[] days = effectiveDays[code & 0xFF];
+            if (days == null) {
+                return UNKNOWN;
+            }
+            int i = Arrays.binarySearch(days, date.toEpochDay());
+            if (i < 0) {
+                i = -i - 2; // last entry before the day
+            }
+            return i < 0 ? UNKNOWN : basisPoints[code & 0xFF][i];
+        }
+
+        // all rates on one day as a 256-entry table for BulkVATCalculator,
+        // built once per batch so the per-invoice loop stays a plain array read
+        public int[] tableOn(LocalDate date) {
+            int[] table = new int[256];
+            for (int code = 0; code < 256; code++) {
+                table[code] = basisPoints((byte) code, date);
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TaxRateRegistryTest {
+    private static final byte RETAILER = TaxCategory.RETAILER;
+    private static final LocalDate RISE = LocalDate.of(2025, 7, 1);
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("tax_rates", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private void write(FileTime modified, String... lines) throws IOException {
+        Files.write(file, List.of(lines), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, modified);
+    }
+
+    private static TaxRateRegistry.RateTable parse(String... lines) {
+        return TaxRateRegistry.RateTable.parse(List.of(lines), 1);
+    }
+
+    @Test
+    public void testParse_CommentsAndBlankLinesAreSkipped() {
+        TaxRateRegistry.RateTable table = parse("# header", "", "   ", "0,Retailer,2020-07-01,1800 # trailing comment",
+                " 3 , Exporter , 2024-01-01 , 0 ");
+
+        assertEquals("Retailer rate", 1800, table.basisPoints(RETAILER, LocalDate.of(2024, 1, 1)));
+        assertEquals("Fields are trimmed", "Exporter", table.nameOf((byte) 3));
+        assertEquals("Zero is a valid rate", 0, table.basisPoints((byte) 3, LocalDate.of(2024, 1, 1)));
+        assertFalse("Code 1 is not in the file", table.isKnown((byte) 1));
+        assertEquals("Version", 1, table.getVersion());
+    }
+
+    @Test
+    public void testParse_RejectsMalformedLinesWithTheLineNumber() {
+        String[][] bad = {
+            {"0,Retailer,2020-07-01"},                                // too few fields
+            {"0,Retailer,2020-07-01,1800,x"},                         // too many fields
+            {"x,Retailer,2020-07-01,1800"},                           // code not a number
+            {"0,Retailer,2020-07-01,18.5"},                           // rate not a whole number
+            {"0,Retailer,2020-13-01,1800"},                           // no such date
+            {"256,Retailer,2020-07-01,1800"},                         // code above a byte
+            {"-1,Retailer,2020-07-01,1800"},                          // negative code
+            {"0,Retailer,2020-07-01,10001"},                          // above 100%
+            {"0,Retailer,2020-07-01,-1"},                             // negative rate
+            {"0,Retailer,2020-07-01,1800", "0,Shop,2025-07-01,2000"}, // one code, two names
+            {"0,Retailer,2020-07-01,1800", "0,Retailer,2020-07-01,2000"}, // two rates on one day
+        };
+        for (String[] lines : bad) {
+            IllegalArgumentException e = assertThrows(String.join(" / ", lines), IllegalArgumentException.class,
+                    () -> parse(lines));
+            assertTrue("Message should give the line: " + e.getMessage(),
+                    e.getMessage().startsWith("line " + lines.length + ":"));
+        }
+        assertEquals("Upper bounds are inclusive", 10_000, parse("255,Everything,2020-07-01,10000")
+                .basisPoints((byte) 255, RISE));
+    }
+
+    @Test
+    public void testBasisPoints_EffectiveDateBoundaries() {
+        // lines out of date order on purpose: the history is sorted after parsing
+        TaxRateRegistry.RateTable table = parse("0,Retailer,2025-07-01,2000", "0,Retailer,2020-07-01,1800");
+
+        assertEquals("Before the first date", TaxRateRegistry.RateTable.UNKNOWN,
+                table.basisPoints(RETAILER, LocalDate.of(2020, 6, 30)));
+        assertEquals("On the first date", 1800, table.basisPoints(RETAILER, LocalDate.of(2020, 7, 1)));
+        assertEquals("Day before the rise", 1800, table.basisPoints(RETAILER, RISE.minusDays(1)));
+        assertEquals("On the rise", 2000, table.basisPoints(RETAILER, RISE));
+        assertEquals("Long after the rise", 2000, table.basisPoints(RETAILER, LocalDate.of(2099, 1, 1)));
+        assertEquals("Unknown code", TaxRateRegistry.RateTable.UNKNOWN, table.basisPoints((byte) 200, RISE));
+    }
+
+    @Test
+    public void testTableOn_MatchesBasisPointsForEveryCode() {
+        TaxRateRegistry.RateTable table = parse("0,Retailer,2020-07-01,1800", "0,Retailer,2025-07-01,2000",
+                "1,Wholesaler,2020-07-01,1500", "255,Late,2025-07-01,500");
+
+        for (LocalDate date : new LocalDate[] {RISE.minusDays(1), RISE}) {
+            int[] rates = table.tableOn(date);
+            assertEquals("One entry per byte code", 256, rates.length);
+            for (int code = 0; code < 256; code++) {
+                assertEquals("Code " + code + " on " + date, table.basisPoints((byte) code, date), rates[code]);
+            }
+        }
+        assertEquals("Retailer on the rise", 2000, table.tableOn(RISE)[0]);
+        assertEquals("Code 255 before its date", TaxRateRegistry.RateTable.UNKNOWN, table.tableOn(RISE.minusDays(1))[255]);
+        assertEquals("Code 255 on its date", 500, table.tableOn(RISE)[255]);
+    }
+
+    @Test
+    public void testReloadIfChanged_OnlyReadsAChangedFile() throws IOException {
+        TaxRateRegistry registry = new TaxRateRegistry(file);
+        assertEquals("Built-in rates before any load", 0, registry.current().getVersion());
+        assertEquals("Built-in retailer rate", Retailer.RATE_BASIS_POINTS, registry.current().basisPoints(RETAILER, RISE));
+
+        write(FileTime.fromMillis(1_000_000), "0,Retailer,2020-07-01,1900");
+        assertTrue("First call loads the file", registry.reloadIfChanged());
+        assertEquals("Version after the first load", 1, registry.current().getVersion());
+        assertFalse("Unchanged file is not re-read", registry.reloadIfChanged());
+        assertEquals("Version stays", 1, registry.current().getVersion());
+
+        write(FileTime.fromMillis(2_000_000), "0,Retailer,2020-07-01,2000");
+        assertTrue("Changed file is re-read", registry.reloadIfChanged());
+        assertEquals("Version after the change", 2, registry.current().getVersion());
+        assertEquals("New rate", 2000, registry.current().basisPoints(RETAILER, RISE));
+    }
+
+    @Test
+    public void testReload_BadFileKeepsTheOldVersion() throws IOException {
+        TaxRateRegistry registry = new TaxRateRegistry(file);
+        write(FileTime.fromMillis(1_000_000), "0,Retailer,2020-07-01,1900");
+        registry.reload();
+        TaxRateRegistry.RateTable good = registry.current();
+
+        write(FileTime.fromMillis(2_000_000), "0,Retailer,2020-07-01,nineteen");
+        assertThrows("Bad rate", IllegalArgumentException.class, registry::reloadIfChanged);
+        assertSame("Old table stays current", good, registry.current());
+
+        Files.delete(file);
+        assertThrows("Missing file", IOException.class, registry::reload);
+        assertSame("Old table still current", good, registry.current());
+    }
+
+    @Test
+    public void testBatchStartedBeforeAReloadKeepsItsVersion() throws IOException {
+        TaxRateRegistry registry = new TaxRateRegistry(file);
+        write(FileTime.fromMillis(1_000_000), "0,Retailer,2020-07-01,1800");
+        registry.reload();
+
+        // a batch takes current() once and builds its rate table from it
+        TaxRateRegistry.RateTable batchTable = registry.current();
+        int[] batchRates = batchTable.tableOn(RISE);
+
+        write(FileTime.fromMillis(2_000_000), "0,Retailer,2020-07-01,1800", "0,Retailer,2025-07-01,2000");
+        assertTrue("Reload mid-batch", registry.reloadIfChanged());
+
+        assertEquals("Batch keeps its version", 1, batchTable.getVersion());
+        assertEquals("Batch keeps its rate", 1800, batchTable.basisPoints(RETAILER, RISE));
+        assertEquals("Batch table is unchanged", 1800, batchRates[0]);
+        long[] vat = new long[1];
+        BulkVATCalculator.calculateVATCents(new long[] {100_000}, new byte[] {RETAILER}, vat, 1,
+                RoundingMode.HALF_UP, batchRates);
+        assertEquals("Batch VAT at the old rate", 18_000, vat[0]);
+
+        assertEquals("Next batch sees the new version", 2, registry.current().getVersion());
+        assertEquals("Next batch sees the new rate", 2000, registry.current().basisPoints(RETAILER, RISE));
+    }
+
+    @Test
+    public void testCategoriesFollowAReload() throws IOException {
+        TaxRateRegistry registry = new TaxRateRegistry(file);
+        Retailer retailer = new Retailer(registry, RISE);
+        assertEquals("Built-in rate", Retailer.RATE_BASIS_POINTS, retailer.getRateBasisPoints());
+
+        write(FileTime.fromMillis(1_000_000), "0,Retailer,2020-07-01,1800", "0,Retailer,2025-07-01,2000",
+                "3,Exporter,2024-01-01,0");
+        registry.reload();
+        assertEquals("Rate after the reload", 2000, retailer.getRateBasisPoints());
+        assertEquals("Double rate after the reload", 0.20, retailer.getRate(), 0.0);
+        assertEquals("Exact VAT after the reload", 20_000, retailer.calculateVATCents(100_000, RoundingMode.HALF_UP));
+        assertEquals("Day before the rise", 1800, new Retailer(registry, RISE.minusDays(1)).getRateBasisPoints());
+
+        RegisteredCategory exporter = new RegisteredCategory(registry, (byte) 3, RISE);
+        assertEquals("Category added by the file", 0, exporter.calculateVATCents(100_000, RoundingMode.HALF_UP));
+        assertThrows("Code not in the registry", IllegalArgumentException.class,
+                () -> new RegisteredCategory(registry, (byte) 4, RISE));
+        assertThrows("Date before the first rate", IllegalStateException.class,
+                () -> new Retailer(registry, LocalDate.of(2019, 1, 1)).getRateBasisPoints());
+    }
+
+    @Test
+    public void testLongLivedCategoryPicksUpAFutureDatedRate() throws IOException {
+        TaxRateRegistry registry = new TaxRateRegistry(file);
+        write(FileTime.fromMillis(1_000_000), "0,Retailer,2020-07-01,1800", "0,Retailer,2025-07-01,2000");
+        registry.reload();
+        MovingClock clock = new MovingClock(RISE.atStartOfDay(ZoneOffset.UTC).minusSeconds(1).toInstant());
+        Retailer retailer = new Retailer(registry, clock);
+
+        assertEquals("A second before the rise", 1800, retailer.getRateBasisPoints());
+        clock.now = clock.now.plusSeconds(1);
+        assertEquals("At midnight of the rise", 2000, retailer.getRateBasisPoints());
+        assertEquals("Exact VAT on the day", 20_000, retailer.calculateVATCents(100_000, RoundingMode.HALF_UP));
+        clock.now = clock.now.minusSeconds(1);
+        assertEquals("Cached rate follows the day back", 1800, retailer.getRateBasisPoints());
+    }
+
+    // a clock the test moves by hand
+    private static final class MovingClock extends Clock {
+        Instant now;
+
+        MovingClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
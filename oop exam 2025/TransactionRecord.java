@@ -1,8 +1,10 @@
+import java.math.RoundingMode;
+
 public class TransactionRecord {
     
     private String buyerTIN;
     private String sellerTIN;
-    private double invoiceAmount;
+    private long invoiceAmountCents; // UGX cents, see Money
     private String transactionTimestamp;
 
     // Getter and setter methods
@@ -23,15 +25,28 @@ public class TransactionRecord {
     }
 
     public double getInvoiceAmount() {
-        return invoiceAmount;
+        return Money.toDouble(invoiceAmountCents);
     }
 
+    // rounds to the nearest cent; rejects negatives like setInvoiceAmountCents
     public void setInvoiceAmount(double invoiceAmount) {
-        if (invoiceAmount >= 0) {
-            this.invoiceAmount = invoiceAmount;
-        } else {
-            System.out.println("Invalid invoice amount.");
+        setInvoiceAmountCents(Money.fromDouble(invoiceAmount));
+    }
+
+    public long getInvoiceAmountCents() {
+        return invoiceAmountCents;
+    }
+
+    public void setInvoiceAmountCents(long invoiceAmountCents) {
+        if (invoiceAmountCents < 0) {
+            throw new IllegalArgumentException("Invalid invoice amount: " + Money.format(invoiceAmountCents));
         }
+        this.invoiceAmountCents = invoiceAmountCents;
+    }
+
+    // VAT on this invoice in cents for the seller's category
+    public long calculateVATCents(TaxCategory category, RoundingMode mode) {
+        return category.calculateVATCents(invoiceAmountCents, mode);
     }
 
     public String getTransactionTimestamp() {
@@ -0,0 +1,49 @@
+import java.math.RoundingMode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TransactionRecordTest {
+
+    @Test
+    public void testSetInvoiceAmountCents_StoresExactCents() {
+        TransactionRecord record = new TransactionRecord();
+        record.setInvoiceAmountCents(123_456);
+
+        assertEquals("Cents should be kept exactly", 123_456, record.getInvoiceAmountCents());
+        assertEquals("Shillings view", 1234.56, record.getInvoiceAmount(), 0.0);
+        assertEquals("VAT at 18%", 22_222, record.calculateVATCents(new Retailer(), RoundingMode.HALF_UP));
+    }
+
+    @Test
+    public void testSetInvoiceAmountCents_RejectsNegativeAndKeepsOldValue() {
+        TransactionRecord record = new TransactionRecord();
+        record.setInvoiceAmountCents(500);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> record.setInvoiceAmountCents(-1));
+        assertTrue("Message should show the amount", e.getMessage().contains("-0.01"));
+        assertEquals("Old amount should be kept", 500, record.getInvoiceAmountCents());
+    }
+
+    @Test
+    public void testSetInvoiceAmountCents_AcceptsZero() {
+        TransactionRecord record = new TransactionRecord();
+        record.setInvoiceAmountCents(500);
+        record.setInvoiceAmountCents(0);
+
+        assertEquals("Zero is a valid amount", 0, record.getInvoiceAmountCents());
+    }
+
+    @Test
+    public void testSetInvoiceAmount_RejectsNegativeLikeTheCentsSetter() {
+        TransactionRecord record = new TransactionRecord();
+        record.setInvoiceAmount(1234.565);
+        assertEquals("Rounded to the cent", 123_457, record.getInvoiceAmountCents());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> record.setInvoiceAmount(-0.01));
+        assertTrue("Message should show the amount", e.getMessage().contains("-0.01"));
+        assertEquals("Old amount should be kept", 123_457, record.getInvoiceAmountCents());
+        assertThrows("NaN", ArithmeticException.class, () -> record.setInvoiceAmount(Double.NaN));
+    }
+}
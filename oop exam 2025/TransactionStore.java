@@ -0,0 +1,365 @@
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Invoices held column by column instead of as TransactionRecord objects.
+// Buyer and seller TINs are dictionary-encoded to int ids shared by both
+// columns, and amounts (cents) and timestamps (epoch seconds) sit in
+// primitive arrays, so a record costs 24 bytes plus its share of the
+// dictionary instead of an object with three Strings.
+//
+// Columns grow in fixed-size segments: nothing is copied on growth, spare
+// capacity is at most one segment, and a segment is the unit of parallel
+// work. Each segment keeps its time range, so a time filter skips segments
+// that can't match; dumps loaded in time order make that most of them.
+//
+// One thread adds. Totals are computed after adding stops, or from another
+// thread once the store has been handed over safely (e.g. through a queue).
+public class TransactionStore {
+    static final int SEGMENT_SIZE = 1 << 16;
+
+    public enum GroupBy {
+        SELLER, BUYER
+    }
+
+    private final TinDictionary tins = new TinDictionary();
+    private Segment[] segments = new Segment[16];
+    private int segmentCount;
+    private long size;
+
+    public void add(long buyerTin, long sellerTin, long amountCents, long epochSecond) {
+        if (amountCents < 0) {
+            throw new IllegalArgumentException("negative invoice amount: " + amountCents);
+        }
+        Segment segment = segmentCount == 0 ? null : segments[segmentCount - 1];
+        if (segment == null || segment.size == SEGMENT_SIZE) {
+            if (segmentCount == segments.length) {
+                segments = Arrays.copyOf(segments, segmentCount * 2);
+            }
+            segment = new Segment();
+            segments[segmentCount++] = segment;
+        }
+        segment.add(tins.idOf(buyerTin), tins.idOf(sellerTin), amountCents, epochSecond);
+        size++;
+    }
+
+    // copies a batch from InvoiceParser, which is about to reuse it
+    public void addAll(InvoiceBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            add(batch.buyerTins[i], batch.sellerTins[i], batch.amountCents[i], batch.epochSeconds[i]);
+        }
+    }
+
+    public void add(TransactionRecord record) {
+        add(Long.parseLong(record.getBuyerTIN()), Long.parseLong(record.getSellerTIN()),
+                record.getInvoiceAmountCents(), Instant.parse(record.getTransactionTimestamp()).getEpochSecond());
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int distinctTins() {
+        return tins.size();
+    }
+
+    // heap held by the columns and the dictionary, not counting object headers
+    public long memoryBytes() {
+        return (long) segmentCount * SEGMENT_SIZE * Segment.BYTES_PER_RECORD + tins.memoryBytes()
+                + (long) segments.length * 8;
+    }
+
+    // cents invoiced per TIN over invoices with from <= timestamp < to,
+    // spread over the common fork-join pool
+    public TinTotals totalBy(GroupBy by, long fromEpochSecond, long toEpochSecond) {
+        return totalBy(by, fromEpochSecond, toEpochSecond, ForkJoinPool.commonPool().getParallelism());
+    }
+
+    // each of the workers sums every workers-th segment into its own array,
+    // indexed by TIN id, and the arrays are added together at the end;
+    // a TIN total past Long.MAX_VALUE cents throws ArithmeticException
+    TinTotals totalBy(GroupBy by, long fromEpochSecond, long toEpochSecond, int workers) {
+        Segment[] snapshot = segments;
+        int count = segmentCount;
+        int tinCount = tins.size();
+        int tasks = Math.max(1, Math.min(workers, count));
+        long[] totals = IntStream.range(0, tasks).parallel()
+                .mapToObj(task -> {
+                    long[] partial = new long[tinCount];
+                    for (int s = task; s < count; s += tasks) {
+                        snapshot[s].sumInto(partial, by, fromEpochSecond, toEpochSecond);
+                    }
+                    return partial;
+                })
+                .reduce((a, b) -> {
+                    for (int i = 0; i < a.length; i++) {
+                        a[i] = Math.addExact(a[i], b[i]);
+                    }
+                    return a;
+                })
+                .orElseGet(() -> new long[tinCount]);
+        return new TinTotals(tins, totals);
+    }
+
+    private static final class Segment {
+        static final int BYTES_PER_RECORD = 4 + 4 + 8 + 8;
+
+        final int[] buyerIds = new int[SEGMENT_SIZE];
+        final int[] sellerIds = new int[SEGMENT_SIZE];
+        final long[] amountCents = new long[SEGMENT_SIZE];
+        final long[] epochSeconds = new long[SEGMENT_SIZE];
+        int size;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        void add(int buyerId, int sellerId, long cents, long epochSecond) {
+            buyerIds[size] = buyerId;
+            sellerIds[size] = sellerId;
+            amountCents[size] = cents;
+            epochSeconds[size] = epochSecond;
+            size++;
+            minTime = Math.min(minTime, epochSecond);
+            maxTime = Math.max(maxTime, epochSecond);
+        }
+
+        void sumInto(long[] totals, GroupBy by, long from, long to) {
+            if (size == 0 || maxTime < from || minTime >= to) {
+                return;
+            }
+            int[] ids = by == GroupBy.SELLER ? sellerIds : buyerIds;
+            if (minTime >= from && maxTime < to) {
+                for (int i = 0; i < size; i++) {
+                    totals[ids[i]] = Math.addExact(totals[ids[i]], amountCents[i]);
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                long time = epochSeconds[i];
+                if (time >= from && time < to) {
+                    totals[ids[i]] = Math.addExact(totals[ids[i]], amountCents[i]);
+                }
+            }
+        }
+    }
+}
+
+// TIN <-> dense int id. Open addressing with linear probing on a
+// power-of-two table kept at most half full; 0 marks an empty slot, which
+// is safe because a TIN is never 0.
+class TinDictionary {
+    private long[] keys = new long[1 << 10];
+    private int[] slotIds = new int[1 << 10];
+    private long[] tinsById = new long[1 << 9];
+    private int size;
+
+    // the TIN's id, giving it the next one if it is new
+    int idOf(long tin) {
+        if (tin <= 0) {
+            throw new IllegalArgumentException("invalid TIN: " + tin);
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(tin, mask); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == tin) {
+                return slotIds[slot];
+            }
+            if (keys[slot] == 0) {
+                if (size == tinsById.length) {
+                    grow();
+                    return idOf(tin);
+                }
+                keys[slot] = tin;
+                slotIds[slot] = size;
+                tinsById[size] = tin;
+                return size++;
+            }
+        }
+    }
+
+    // the TIN's id, or -1 if it has none
+    int find(long tin) {
+        if (tin <= 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(tin, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == tin) {
+                return slotIds[slot];
+            }
+        }
+        return -1;
+    }
+
+    long tinOf(int id) {
+        return tinsById[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long memoryBytes() {
+        return keys.length * 8L + slotIds.length * 4L + tinsById.length * 8L;
+    }
+
+    // Fibonacci hashing: TINs are near-sequential, so spread them with the
+    // golden-ratio multiply before taking the top bits
+    private static int slot(long tin, int mask) {
+        return (int) ((tin * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldIds = slotIds;
+        keys = new long[oldKeys.length * 2];
+        slotIds = new int[oldKeys.length * 2];
+        tinsById = Arrays.copyOf(tinsById, tinsById.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                slotIds[slot] = oldIds[i];
+            }
+        }
+    }
+}
+
+// result of TransactionStore.totalBy: cents per TIN, indexed by TIN id
+class TinTotals {
+    private final TinDictionary tins;
+    private final long[] cents;
+
+    TinTotals(TinDictionary tins, long[] cents) {
+        this.tins = tins;
+        this.cents = cents;
+    }
+
+    // 0 for a TIN with no invoices in the range
+    public long get(long tin) {
+        int id = tins.find(tin);
+        return id < 0 || id >= cents.length ? 0 : cents[id];
+    }
+
+    public long total() {
+        long total = 0;
+        for (long value : cents) {
+            total = Math.addExact(total, value);
+        }
+        return total;
+    }
+
+    // the n TINs with the largest totals, largest first
+    public long[] topTins(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative TIN count: " + n);
+        }
+        if (n == 0) {
+            return new long[0];
+        }
+        PriorityQueue<Integer> smallestFirst = new PriorityQueue<>(n + 1, (a, b) -> Long.compare(cents[a], cents[b]));
+        for (int id = 0; id < cents.length; id++) {
+            if (cents[id] > 0 && (smallestFirst.size() < n || cents[id] > cents[smallestFirst.peek()])) {
+                smallestFirst.add(id);
+                if (smallestFirst.size() > n) {
+                    smallestFirst.poll();
+                }
+            }
+        }
+        long[] top = new long[smallestFirst.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = tins.tinOf(smallestFirst.poll());
+        }
+        return top;
+    }
+}
+
+// memory per record and "total per seller this month" for TransactionRecord
+// objects against the columnar store
+class TransactionStoreBenchmark {
+    static final int RECORDS = 16_000_000;
+    static final int OBJECT_RECORDS = 1_000_000;
+    static final int BUYERS = 2_000_000;
+    static final int SELLERS = 50_000;
+    static final int PASSES = 5;
+
+    public static void main(String[] args) {
+        long start2025 = Instant.parse("2025-01-01T00:00:00Z").getEpochSecond();
+        long march = Instant.parse("2025-03-01T00:00:00Z").getEpochSecond();
+        long april = Instant.parse("2025-04-01T00:00:00Z").getEpochSecond();
+        long quarter = april - start2025;
+        System.out.println("=== Transaction store benchmark ===");
+
+        // before: one TransactionRecord per invoice, grouped through a HashMap
+        Random random = new Random(11);
+        long heapBefore = usedHeap();
+        List<TransactionRecord> records = new ArrayList<>(OBJECT_RECORDS);
+        for (int i = 0; i < OBJECT_RECORDS; i++) {
+            TransactionRecord record = new TransactionRecord();
+            record.setBuyerTIN(Long.toString(1_000_000_000L + random.nextInt(BUYERS)));
+            record.setSellerTIN(Long.toString(1_000_000_000L + random.nextInt(SELLERS)));
+            record.setInvoiceAmountCents(random.nextInt(100_000_000));
+            record.setTransactionTimestamp(Instant.ofEpochSecond(start2025 + i * quarter / OBJECT_RECORDS).toString());
+            records.add(record);
+        }
+        double objectBytes = (usedHeap() - heapBefore) / (double) OBJECT_RECORDS;
+        String from = Instant.ofEpochSecond(march).toString();
+        String to = Instant.ofEpochSecond(april).toString();
+        long objectStart = System.nanoTime();
+        Map<String, Long> bySeller = new HashMap<>();
+        for (int pass = 0; pass < PASSES; pass++) {
+            bySeller.clear();
+            for (TransactionRecord record : records) {
+                String time = record.getTransactionTimestamp();
+                if (time.compareTo(from) >= 0 && time.compareTo(to) < 0) {
+                    bySeller.merge(record.getSellerTIN(), record.getInvoiceAmountCents(), Long::sum);
+                }
+            }
+        }
+        double objectNanos = (System.nanoTime() - objectStart) / ((double) OBJECT_RECORDS * PASSES);
+        System.out.printf("TransactionRecord objects  %6.1f bytes/record  %6.2f ns/record per-seller month (%d sellers)%n",
+                objectBytes, objectNanos, bySeller.size());
+        records = null;
+        bySeller = null;
+
+        // after: the same shape of data, 16x as many invoices, in time order
+        random = new Random(11);
+        TransactionStore store = new TransactionStore();
+        for (int i = 0; i < RECORDS; i++) {
+            store.add(1_000_000_000L + random.nextInt(BUYERS), 1_000_000_000L + random.nextInt(SELLERS),
+                    random.nextInt(100_000_000), start2025 + i * quarter / RECORDS);
+        }
+        System.out.printf("TransactionStore           %6.1f bytes/record  (%d records, %d distinct TINs)%n",
+                store.memoryBytes() / (double) RECORDS, store.size(), store.distinctTins());
+        int cores = ForkJoinPool.commonPool().getParallelism();
+        for (int workers : cores > 1 ? new int[]{1, cores} : new int[]{1}) {
+            for (TransactionStore.GroupBy by : TransactionStore.GroupBy.values()) {
+                TinTotals totals = store.totalBy(by, march, april, workers); // warmup
+                long start = System.nanoTime();
+                for (int pass = 0; pass < PASSES; pass++) {
+                    totals = store.totalBy(by, march, april, workers);
+                }
+                double nanos = (System.nanoTime() - start) / ((double) RECORDS * PASSES);
+                System.out.printf("  %-6s by month, %2d worker(s) %6.2f ns per stored record  total %s  top %d%n",
+                        by, workers, nanos, Money.format(totals.total()), totals.topTins(1)[0]);
+            }
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TransactionStoreTest {
+    private static final long START = 1_740_787_200L; // 2025-03-01T00:00:00Z
+    private static final int SEGMENT = TransactionStore.SEGMENT_SIZE;
+
+    // the invoices added to the store, kept for the HashMap reference totals
+    private long[] buyers;
+    private long[] sellers;
+    private long[] cents;
+    private long[] times;
+
+    // count invoices, one second apart from START unless shuffled
+    private TransactionStore fill(int count, boolean shuffledTimes) {
+        Random random = new Random(3);
+        buyers = new long[count];
+        sellers = new long[count];
+        cents = new long[count];
+        times = new long[count];
+        TransactionStore store = new TransactionStore();
+        for (int i = 0; i < count; i++) {
+            buyers[i] = 1_000_000_000L + random.nextInt(5_000);
+            sellers[i] = 1_000_000_000L + random.nextInt(300);
+            cents[i] = random.nextInt(100_000_000);
+            times[i] = START + (shuffledTimes ? random.nextInt(count) : i);
+            store.add(buyers[i], sellers[i], cents[i], times[i]);
+        }
+        return store;
+    }
+
+    private Map<Long, Long> reference(TransactionStore.GroupBy by, long from, long to) {
+        Map<Long, Long> totals = new HashMap<>();
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= from && times[i] < to) {
+                totals.merge(by == TransactionStore.GroupBy.SELLER ? sellers[i] : buyers[i], cents[i], Long::sum);
+            }
+        }
+        return totals;
+    }
+
+    private void assertMatchesReference(String message, TransactionStore store, TransactionStore.GroupBy by,
+                                        long from, long to, int workers) {
+        Map<Long, Long> expected = reference(by, from, to);
+        TinTotals totals = store.totalBy(by, from, to, workers);
+        long sum = 0;
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(message + " TIN " + entry.getKey(), (long) entry.getValue(), totals.get(entry.getKey()));
+            sum += entry.getValue();
+        }
+        assertEquals(message + " total", sum, totals.total());
+    }
+
+    // the dictionary's slot for a TIN in a table of the given size, as TinDictionary hashes it
+    private static int slot(long tin, int tableSize) {
+        return (int) ((tin * 0x9E3779B97F4A7C15L) >>> 32) & (tableSize - 1);
+    }
+
+    @Test
+    public void testTinDictionary_EncodeDecode() {
+        TinDictionary tins = new TinDictionary();
+        assertEquals("First TIN", 0, tins.idOf(1000000001L));
+        assertEquals("Second TIN", 1, tins.idOf(999_999_999_999_999_999L));
+        assertEquals("Same TIN, same id", 0, tins.idOf(1000000001L));
+        assertEquals("Size", 2, tins.size());
+        assertEquals("Decode", 999_999_999_999_999_999L, tins.tinOf(1));
+        assertEquals("find", 1, tins.find(999_999_999_999_999_999L));
+        assertEquals("find of an unseen TIN", -1, tins.find(42));
+        assertEquals("find of 0", -1, tins.find(0));
+        assertEquals("find does not add", 2, tins.size());
+        assertThrows("Zero TIN", IllegalArgumentException.class, () -> tins.idOf(0));
+        assertThrows("Negative TIN", IllegalArgumentException.class, () -> tins.idOf(-5));
+    }
+
+    @Test
+    public void testTinDictionary_CollisionsProbeToTheNextSlot() {
+        // TINs that hash to one slot of the starting 1024-slot table, plus
+        // one in the slot after it, so probe chains run into each other
+        TinDictionary tins = new TinDictionary();
+        long[] colliding = new long[6];
+        int target = slot(1000000001L, 1024);
+        int found = 0;
+        for (long tin = 1000000001L; found < colliding.length; tin++) {
+            if (slot(tin, 1024) == target) {
+                colliding[found++] = tin;
+            }
+        }
+        long neighbour = 1000000001L;
+        while (slot(neighbour, 1024) != ((target + 1) & 1023)) {
+            neighbour++;
+        }
+        // the last colliding TIN is never added: find has to walk the whole chain
+        for (int i = 0; i < colliding.length - 1; i++) {
+            assertEquals("Colliding TIN " + i, i, tins.idOf(colliding[i]));
+        }
+        assertEquals("Neighbour of the chain", colliding.length - 1, tins.idOf(neighbour));
+        for (int i = 0; i < colliding.length - 1; i++) {
+            assertEquals("find colliding TIN " + i, i, tins.find(colliding[i]));
+            assertEquals("Decode colliding TIN " + i, colliding[i], tins.tinOf(i));
+        }
+        assertEquals("find neighbour", colliding.length - 1, tins.find(neighbour));
+        assertEquals("Unseen TIN in the same slot", -1, tins.find(colliding[colliding.length - 1]));
+    }
+
+    @Test
+    public void testTinDictionary_GrowthKeepsEveryId() {
+        TinDictionary tins = new TinDictionary();
+        long memoryBefore = tins.memoryBytes();
+        int count = 100_000; // several doublings past the starting 512 ids
+        for (int i = 0; i < count; i++) {
+            assertEquals("New TIN " + i, i, tins.idOf(1000000001L + i * 7L));
+        }
+        assertEquals("Size", count, tins.size());
+        assertTrue("Tables grew", tins.memoryBytes() > memoryBefore);
+        for (int i = 0; i < count; i++) {
+            long tin = 1000000001L + i * 7L;
+            assertEquals("Id after growth " + i, i, tins.find(tin));
+            assertEquals("Same id again " + i, i, tins.idOf(tin));
+            assertEquals("Decode after growth " + i, tin, tins.tinOf(i));
+        }
+        assertEquals("No new ids for known TINs", count, tins.size());
+    }
+
+    @Test
+    public void testTotalBy_SegmentBoundariesAndHalfOpenRange() {
+        // in time order, so segment s holds seconds [s * SEGMENT, (s + 1) * SEGMENT)
+        TransactionStore store = fill(3 * SEGMENT + 100, false);
+        long second = START + SEGMENT;
+        long third = START + 2L * SEGMENT;
+        long end = START + times.length;
+        long[][] ranges = {
+            {START, end},               // every segment whole
+            {second, third},            // exactly the middle segment
+            {second - 1, third + 1},    // one invoice into each neighbour
+            {second + 1, third - 1},    // inside one segment
+            {third, third + 1},         // one second: the first invoice of a segment
+            {third - 1, third},         // one second: the last invoice of a segment
+            {second, second},           // empty range
+            {third, second},            // reversed range
+            {START - 1000, START},      // before every invoice
+            {end, end + 1000},          // after every invoice
+            {Long.MIN_VALUE, Long.MAX_VALUE},
+        };
+        for (long[] range : ranges) {
+            for (TransactionStore.GroupBy by : TransactionStore.GroupBy.values()) {
+                assertMatchesReference(by + " [" + (range[0] - START) + ", " + (range[1] - START) + ")",
+                        store, by, range[0], range[1], 2);
+            }
+        }
+        TinTotals one = store.totalBy(TransactionStore.GroupBy.SELLER, third, third + 1, 1);
+        assertEquals("From is inclusive", cents[2 * SEGMENT], one.total());
+        assertEquals("To is exclusive", cents[2 * SEGMENT - 1],
+                store.totalBy(TransactionStore.GroupBy.SELLER, third - 1, third, 1).total());
+    }
+
+    @Test
+    public void testTotalBy_UnorderedTimesStillFilterPerInvoice() {
+        // shuffled times give every segment the full range, so none is
+        // skipped or taken whole and each invoice is checked
+        TransactionStore store = fill(2 * SEGMENT + 7, true);
+        long middle = START + times.length / 2;
+        for (TransactionStore.GroupBy by : TransactionStore.GroupBy.values()) {
+            assertMatchesReference(by + " first half", store, by, START, middle, 1);
+            assertMatchesReference(by + " second half", store, by, middle, START + times.length, 3);
+        }
+    }
+
+    @Test
+    public void testTotalBy_ParallelMatchesSerialReference() {
+        TransactionStore store = fill(5 * SEGMENT + 1234, true);
+        long from = START + 1000;
+        long to = START + times.length - 1000;
+        for (int workers : new int[] {1, 2, 3, 4, 7, 64}) { // 64 is more workers than segments
+            for (TransactionStore.GroupBy by : TransactionStore.GroupBy.values()) {
+                assertMatchesReference(by + " with " + workers + " worker(s)", store, by, from, to, workers);
+            }
+        }
+        assertMatchesReference("Common pool", store, TransactionStore.GroupBy.SELLER, from, to,
+                ForkJoinPool.commonPool().getParallelism());
+        long whole = store.totalBy(TransactionStore.GroupBy.BUYER, Long.MIN_VALUE, Long.MAX_VALUE).total();
+        assertEquals("Public overload sums everything", Arrays.stream(cents).sum(), whole);
+    }
+
+    @Test
+    public void testTotalBy_EmptyStore() {
+        TransactionStore store = new TransactionStore();
+        TinTotals totals = store.totalBy(TransactionStore.GroupBy.SELLER, Long.MIN_VALUE, Long.MAX_VALUE, 4);
+        assertEquals("Total", 0, totals.total());
+        assertEquals("Unknown TIN", 0, totals.get(1000000001L));
+        assertArrayEquals("No top TINs", new long[0], totals.topTins(3));
+    }
+
+    @Test
+    public void testTopTins_LargestFirstAndCountGuards() {
+        TransactionStore store = new TransactionStore();
+        store.add(1, 10, 500, START);
+        store.add(2, 20, 300, START);
+        store.add(3, 30, 900, START);
+        store.add(4, 30, 100, START);
+        store.add(5, 40, 0, START);
+        TinTotals bySeller = store.totalBy(TransactionStore.GroupBy.SELLER, START, START + 1, 1);
+
+        assertArrayEquals("Top two", new long[] {30, 10}, bySeller.topTins(2));
+        assertArrayEquals("Zero totals are left out", new long[] {30, 10, 20}, bySeller.topTins(10));
+        assertArrayEquals("n == 0", new long[0], bySeller.topTins(0));
+        assertThrows("Negative n", IllegalArgumentException.class, () -> bySeller.topTins(-1));
+        assertEquals("A buyer-only TIN has no seller total", 0, bySeller.get(1));
+    }
+
+    @Test
+    public void testTotalBy_OverflowThrowsInsteadOfWrapping() {
+        long half = Long.MAX_VALUE / 2 + 1;
+        TransactionStore store = new TransactionStore();
+        store.add(1, 10, half, START);
+        store.add(2, 10, half, START);
+        assertThrows("One segment", ArithmeticException.class,
+                () -> store.totalBy(TransactionStore.GroupBy.SELLER, START, START + 1, 1));
+        assertEquals("Separate buyers still sum", half,
+                store.totalBy(TransactionStore.GroupBy.BUYER, START, START + 1, 1).get(1));
+
+        // the second invoice lands in the next segment, summed by the other worker
+        TransactionStore split = new TransactionStore();
+        split.add(1, 10, half, START);
+        for (int i = 1; i < SEGMENT; i++) {
+            split.add(1, 20, 0, START);
+        }
+        split.add(1, 10, half, START);
+        assertThrows("Across workers", ArithmeticException.class,
+                () -> split.totalBy(TransactionStore.GroupBy.SELLER, START, START + 1, 2));
+    }
+
+    @Test
+    public void testAdd_RejectsNegativeAmountAndCountsRecords() {
+        TransactionStore store = new TransactionStore();
+        assertThrows("Negative amount", IllegalArgumentException.class, () -> store.add(1, 2, -1, START));
+        assertThrows("Zero TIN", IllegalArgumentException.class, () -> store.add(0, 2, 1, START));
+        store.add(1, 2, 100, START);
+        store.add(2, 3, 100, START);
+        assertEquals("Size", 2, store.size());
+        assertEquals("TINs shared by both columns", 3, store.distinctTins());
+
+        TransactionRecord record = new TransactionRecord();
+        record.setBuyerTIN("1000000001");
+        record.setSellerTIN("2");
+        record.setInvoiceAmountCents(123_456);
+        record.setTransactionTimestamp("2025-03-01T00:00:00Z");
+        store.add(record);
+        assertEquals("Record added", 123_456,
+                store.totalBy(TransactionStore.GroupBy.BUYER, START, START + 1, 1).get(1000000001L));
+    }
+}
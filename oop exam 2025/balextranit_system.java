@@ -2,8 +2,46 @@
 // BALEXTRANIT (U) LTD - Transportation System Implementation
 // =============================================================================
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
 
 // =============================================================================
 // CORE DOMAIN CLASSES
@@ -20,10 +58,18 @@ class Passenger {
     private final int groupSize;
     
     public Passenger(String name, String phoneNumber, int groupSize) {
-        this.passengerId = idCounter.getAndIncrement();
+        this(idCounter.getAndIncrement(), name, phoneNumber, groupSize);
+    }
+    
+    /**
+     * Recreates a passenger with a known id, e.g. when replaying a TripJournal
+     */
+    Passenger(int passengerId, String name, String phoneNumber, int groupSize) {
+        this.passengerId = passengerId;
         this.name = name;
         this.phoneNumber = phoneNumber;
         this.groupSize = groupSize;
+        idCounter.accumulateAndGet(passengerId + 1, Math::max);
     }
     
     // Getters
@@ -43,9 +89,20 @@ class Passenger {
  * Represents a location with x,y coordinates
  */
 class Location {
+    /** Side of the shared grid of interned points, matching PassengerSource's 0-100 range */
+    static final int GRID_SIZE = 101;
+    private static final Location[] GRID = new Location[GRID_SIZE * GRID_SIZE];
+    static {
+        for (int x = 0; x < GRID_SIZE; x++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                GRID[x * GRID_SIZE + y] = new Location(x, y);
+            }
+        }
+    }
+    
     private final int x;
     private final int y;
-    private final String address;
+    private String address; // Built on first use for coordinate-only locations
     
     public Location(int x, int y, String address) {
         this.x = x;
@@ -54,21 +111,65 @@ class Location {
     }
     
     public Location(int x, int y) {
-        this(x, y, String.format("Location(%d,%d)", x, y));
+        this.x = x;
+        this.y = y;
+    }
+    
+    /**
+     * Returns a shared instance for points on the 0-100 grid, a new location otherwise
+     */
+    public static Location of(int x, int y) {
+        if (x >= 0 && x < GRID_SIZE && y >= 0 && y < GRID_SIZE) {
+            return GRID[x * GRID_SIZE + y];
+        }
+        return new Location(x, y);
     }
     
     // Getters
     public int getX() { return x; }
     public int getY() { return y; }
-    public String getAddress() { return address; }
+    
+    public String getAddress() {
+        // Racy but benign: every thread builds an equal immutable string
+        String current = address;
+        if (current == null) {
+            current = "Location(" + x + "," + y + ")";
+            address = current;
+        }
+        return current;
+    }
     
     public double distanceTo(Location other) {
-        return Math.sqrt(Math.pow(this.x - other.x, 2) + Math.pow(this.y - other.y, 2));
+        double dx = this.x - other.x;
+        double dy = this.y - other.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+    
+    /**
+     * Squared distance; cheaper than distanceTo and orders locations the same way
+     */
+    public long distanceSquaredTo(Location other) {
+        long dx = this.x - other.x;
+        long dy = this.y - other.y;
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * Writes the squared distance from (x, y) to each of the first count points
+     * packed as x0, y0, x1, y1, ... into out. The loop is branch-free so the JIT
+     * can vectorise it.
+     */
+    public static void distancesSquared(int x, int y, int[] packedXY, int count, long[] out) {
+        for (int i = 0; i < count; i++) {
+            long dx = packedXY[2 * i] - x;
+            long dy = packedXY[2 * i + 1] - y;
+            out[i] = dx * dx + dy * dy;
+        }
     }
     
     @Override
     public String toString() {
-        return String.format("Location{x=%d, y=%d, address='%s'}", x, y, address);
+        return String.format("Location{x=%d, y=%d, address='%s'}", x, y, getAddress());
     }
     
     @Override
@@ -81,7 +182,7 @@ class Location {
     
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        return 31 * x + y;
     }
 }
 
@@ -89,16 +190,21 @@ class Location {
  * Represents different types of vehicles in the fleet
  */
 enum VehicleType {
-    TAXI(4),
-    SHUTTLE(14);
+    TAXI(4, false),
+    SHUTTLE(14, true);
     
     private final int capacity;
+    private final boolean poolable;
     
-    VehicleType(int capacity) {
+    VehicleType(int capacity, boolean poolable) {
         this.capacity = capacity;
+        this.poolable = poolable;
     }
     
     public int getCapacity() { return capacity; }
+    
+    /** Whether vehicles of this type carry several groups at once when the company pools rides */
+    public boolean isPoolable() { return poolable; }
 }
 
 /**
@@ -118,13 +224,22 @@ enum VehicleStatus {
  */
 class Vehicle {
     private static final AtomicInteger idCounter = new AtomicInteger(1);
+    private static final AtomicLongFieldUpdater<Vehicle> STATUS_SINCE =
+        AtomicLongFieldUpdater.newUpdater(Vehicle.class, "statusSince");
     private final int vehicleId;
     private final String licensePlate;
     private final VehicleType type;
-    private VehicleStatus status;
-    private Location currentLocation;
+    private volatile VehicleStatus status;
+    private volatile Location currentLocation;
     private final String driverName;
-    private Trip currentTrip;
+    private volatile Trip currentTrip;
+    private volatile RoutePlan route; // Stops still to serve while pooling rides, else null
+    private volatile VehicleListener listener;
+    private volatile long statusSince; // When the current status began, on the owning company's clock
+    // Makes each status change and its listener call one step, so listeners see changes in order.
+    // Innermost lock: dispatchers claim vehicles while holding other locks, so it must not be the monitor
+    private final Object statusLock = new Object();
+    int fleetSlot = -1; // Index in the owning company's FleetStore
     
     public Vehicle(String licensePlate, VehicleType type, String driverName, Location initialLocation) {
         this.vehicleId = idCounter.getAndIncrement();
@@ -146,21 +261,119 @@ class Vehicle {
     
     // Status management
     public void setStatus(VehicleStatus status) {
-        this.status = status;
+        VehicleStatus oldStatus;
+        synchronized (statusLock) {
+            oldStatus = this.status;
+            this.status = status;
+            fireStatusChanged(oldStatus, status);
+        }
+        if (oldStatus != status && status == VehicleStatus.AVAILABLE) {
+            fireBecameAvailable();
+        }
     }
     
     public void setCurrentLocation(Location location) {
+        Location oldLocation = this.currentLocation;
         this.currentLocation = location;
+        VehicleListener current = listener;
+        if (current != null) {
+            current.onLocationChanged(this, oldLocation);
+        }
     }
     
     public void assignTrip(Trip trip) {
         this.currentTrip = trip;
-        this.status = VehicleStatus.EN_ROUTE_TO_PICKUP;
+        setStatus(VehicleStatus.EN_ROUTE_TO_PICKUP);
+    }
+    
+    /**
+     * Atomically claims this vehicle for a trip if it is still available.
+     * Returns false if another dispatcher claimed it first.
+     */
+    public boolean tryAssignTrip(Trip trip) {
+        synchronized (statusLock) {
+            if (status != VehicleStatus.AVAILABLE) {
+                return false;
+            }
+            this.status = VehicleStatus.EN_ROUTE_TO_PICKUP;
+            this.currentTrip = trip;
+            fireStatusChanged(VehicleStatus.AVAILABLE, VehicleStatus.EN_ROUTE_TO_PICKUP);
+            return true;
+        }
     }
     
     public void completeTrip() {
         this.currentTrip = null;
-        this.status = VehicleStatus.AVAILABLE;
+        setStatus(VehicleStatus.AVAILABLE);
+    }
+    
+    /**
+     * Returns the next pickup or drop-off this vehicle is heading for, or null when idle
+     */
+    public Stop getNextStop() {
+        RoutePlan plan = route;
+        if (plan != null) {
+            return plan.peek();
+        }
+        Trip trip = currentTrip;
+        return trip != null ? new Stop(trip, trip.getPickupTimeNanos() == 0) : null;
+    }
+    
+    public int getPassengersAboard() {
+        RoutePlan plan = route;
+        if (plan != null) {
+            return plan.getAboard();
+        }
+        Trip trip = currentTrip;
+        return trip != null && trip.getPickupTimeNanos() != 0 ? trip.getPassenger().getGroupSize() : 0;
+    }
+    
+    RoutePlan getRoute() {
+        return route;
+    }
+    
+    void setRoute(RoutePlan route) {
+        this.route = route;
+    }
+    
+    /**
+     * Points the vehicle at the trip of its next stop without changing its status
+     */
+    void setCurrentTrip(Trip trip) {
+        this.currentTrip = trip;
+    }
+    
+    /**
+     * Registers the listener that keeps the owning company's fleet index up to date
+     */
+    void setListener(VehicleListener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Starts timing the current status at the given time and returns how long the previous one lasted
+     */
+    long restartStatusTimer(long now) {
+        return now - STATUS_SINCE.getAndSet(this, now);
+    }
+    
+    long getStatusSince() {
+        return statusSince;
+    }
+    
+    private void fireStatusChanged(VehicleStatus oldStatus, VehicleStatus newStatus) {
+        VehicleListener current = listener;
+        if (current != null && oldStatus != newStatus) {
+            current.onStatusChanged(this, oldStatus, newStatus);
+        }
+    }
+    
+    // Outside the status lock, so the listener may claim this vehicle straight away
+    private void fireBecameAvailable() {
+        VehicleListener current = listener;
+        if (current != null) {
+            current.onBecameAvailable(this);
+        }
     }
     
     public boolean isAvailable() {
@@ -179,7 +392,70 @@ class Vehicle {
 }
 
 /**
- * Represents a trip from pickup to destination
+ * Source of timestamps in nanoseconds since the epoch
+ */
+interface TimeSource {
+    /** Wall-clock anchored, monotonic system time */
+    TimeSource SYSTEM = new MonotonicClock();
+    
+    long epochNanos();
+}
+
+/**
+ * Reads the wall clock once and advances it with System.nanoTime, so
+ * timestamps are cheap, never go backwards and need no allocation
+ */
+class MonotonicClock implements TimeSource {
+    private final long anchorEpochNanos;
+    private final long anchorNanoTime;
+    
+    public MonotonicClock() {
+        Instant now = Instant.now();
+        this.anchorNanoTime = System.nanoTime();
+        this.anchorEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+    
+    @Override
+    public long epochNanos() {
+        return anchorEpochNanos + (System.nanoTime() - anchorNanoTime);
+    }
+}
+
+/**
+ * Clock whose reading a daemon thread refreshes at a fixed resolution, so
+ * a timestamp costs one volatile read. Suited to very high request rates
+ * where millisecond-level precision is enough. Each instance keeps its
+ * ticker for the life of the process, so share one per application.
+ */
+class CachedClock implements TimeSource {
+    private final TimeSource source;
+    private volatile long now;
+    
+    public CachedClock(TimeSource source, long resolutionNanos) {
+        if (resolutionNanos <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolutionNanos);
+        }
+        this.source = source;
+        this.now = source.epochNanos();
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(resolutionNanos);
+                now = Math.max(now, this.source.epochNanos());
+            }
+        }, "cached-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+    
+    @Override
+    public long epochNanos() {
+        return now;
+    }
+}
+
+/**
+ * Represents a trip from pickup to destination.
+ * Times are kept as epoch nanoseconds, 0 meaning the event has not happened.
  */
 class Trip {
     private static final AtomicInteger idCounter = new AtomicInteger(1);
@@ -187,17 +463,37 @@ class Trip {
     private final Passenger passenger;
     private final Location pickupLocation;
     private final Location destinationLocation;
-    private final Date requestTime;
-    private Date pickupTime;
-    private Date dropoffTime;
+    private final long requestTime;
+    private long pickupTime;
+    private long dropoffTime;
     private Vehicle assignedVehicle;
     
     public Trip(Passenger passenger, Location pickupLocation, Location destinationLocation) {
+        this(passenger, pickupLocation, destinationLocation, TimeSource.SYSTEM.epochNanos());
+    }
+    
+    public Trip(Passenger passenger, Location pickupLocation, Location destinationLocation, long requestTime) {
         this.tripId = idCounter.getAndIncrement();
         this.passenger = passenger;
         this.pickupLocation = pickupLocation;
         this.destinationLocation = destinationLocation;
-        this.requestTime = new Date();
+        this.requestTime = requestTime;
+    }
+    
+    /**
+     * Recreates a recorded trip, e.g. when replaying a TripJournal
+     */
+    Trip(int tripId, Passenger passenger, Location pickupLocation, Location destinationLocation,
+         Vehicle assignedVehicle, long requestTime, long pickupTime, long dropoffTime) {
+        this.tripId = tripId;
+        this.passenger = passenger;
+        this.pickupLocation = pickupLocation;
+        this.destinationLocation = destinationLocation;
+        this.assignedVehicle = assignedVehicle;
+        this.requestTime = requestTime;
+        this.pickupTime = pickupTime;
+        this.dropoffTime = dropoffTime;
+        idCounter.accumulateAndGet(tripId + 1, Math::max);
     }
     
     // Getters
@@ -205,26 +501,55 @@ class Trip {
     public Passenger getPassenger() { return passenger; }
     public Location getPickupLocation() { return pickupLocation; }
     public Location getDestinationLocation() { return destinationLocation; }
-    public Date getRequestTime() { return requestTime; }
-    public Date getPickupTime() { return pickupTime; }
-    public Date getDropoffTime() { return dropoffTime; }
+    public Instant getRequestTime() { return toInstant(requestTime); }
+    public Instant getPickupTime() { return toInstant(pickupTime); }
+    public Instant getDropoffTime() { return toInstant(dropoffTime); }
+    public long getRequestTimeNanos() { return requestTime; }
+    public long getPickupTimeNanos() { return pickupTime; }
+    public long getDropoffTimeNanos() { return dropoffTime; }
     public Vehicle getAssignedVehicle() { return assignedVehicle; }
     
+    /**
+     * Nanoseconds from request to pickup, or -1 if not yet picked up
+     */
+    public long getWaitTimeNanos() {
+        return pickupTime != 0 ? pickupTime - requestTime : -1;
+    }
+    
+    /**
+     * Nanoseconds from pickup to drop-off, or -1 if not yet completed
+     */
+    public long getRideTimeNanos() {
+        return pickupTime != 0 && dropoffTime != 0 ? dropoffTime - pickupTime : -1;
+    }
+    
     // Trip management
     public void assignVehicle(Vehicle vehicle) {
         this.assignedVehicle = vehicle;
     }
     
     public void markPickedUp() {
-        this.pickupTime = new Date();
+        markPickedUp(TimeSource.SYSTEM.epochNanos());
+    }
+    
+    public void markPickedUp(long time) {
+        this.pickupTime = time;
     }
     
     public void markDroppedOff() {
-        this.dropoffTime = new Date();
+        markDroppedOff(TimeSource.SYSTEM.epochNanos());
+    }
+    
+    public void markDroppedOff(long time) {
+        this.dropoffTime = time;
     }
     
     public boolean isCompleted() {
-        return dropoffTime != null;
+        return dropoffTime != 0;
+    }
+    
+    private static Instant toInstant(long epochNanos) {
+        return epochNanos != 0 ? Instant.ofEpochSecond(0, epochNanos) : null;
     }
     
     @Override
@@ -235,233 +560,3880 @@ class Trip {
 }
 
 /**
- * Main Company class that manages the entire transportation system
+ * Main Company class that manages the entire transportation system.
+ * Safe for concurrent use: dispatchers claim vehicles with a CAS on the
+ * vehicle status, and driver notifications lock only the vehicle concerned.
  */
 class Company {
     private final String name;
     private final List<Vehicle> fleet;
-    private final List<Trip> completedTrips;
-    private final List<Trip> activeTrips;
-    private final List<Trip> lostFares; // Track requests that couldn't be fulfilled
-    private final Random random;
+    private final IdTable<Vehicle> vehiclesById;
+    private final TripHistory completedTrips;
+    private final TripHistory lostFares; // Track requests that couldn't be fulfilled
+    private final LongAdder completedCount;
+    private final LongAdder activeCount;
+    private final LongAdder lostCount;
+    private final Map<VehicleType, FleetGrid> availableByType; // Spatial index of available vehicles
+    private final FleetStore fleetStore; // Primitive mirror of the fleet for contiguous scans
+    private volatile EventSink eventSink;
+    private volatile TripJournal tripJournal; // Optional durable record of finished trips
+    private volatile TimeSource timeSource;
+    private final PendingRequests pendingRequests; // Guarded by itself
+    private volatile long maxPendingWaitNanos; // 0: unmatched requests are lost at once
+    private final FleetGrid pooledVehicles; // Poolable vehicles with a route, whatever their status
+    private volatile boolean ridePooling;
+    private final FleetMetrics metrics;
     
     public Company(String name) {
+        this(name, RetentionPolicy.DEFAULT);
+    }
+    
+    /**
+     * Constructor taking the retention policy for completed trips and lost fares
+     */
+    public Company(String name, RetentionPolicy retentionPolicy) {
         this.name = name;
-        this.fleet = new ArrayList<>();
-        this.completedTrips = new ArrayList<>();
-        this.activeTrips = new ArrayList<>();
-        this.lostFares = new ArrayList<>();
-        this.random = new Random();
+        this.fleet = new CopyOnWriteArrayList<>();
+        this.vehiclesById = new IdTable<>();
+        this.completedTrips = new TripHistory(retentionPolicy);
+        this.lostFares = new TripHistory(retentionPolicy);
+        this.completedCount = new LongAdder();
+        this.activeCount = new LongAdder();
+        this.lostCount = new LongAdder();
+        this.availableByType = new EnumMap<>(VehicleType.class);
+        for (VehicleType type : VehicleType.values()) {
+            availableByType.put(type, new FleetGrid(FleetGrid.DEFAULT_CELL_SIZE));
+        }
+        this.fleetStore = new FleetStore();
+        this.eventSink = new ConsoleEventSink();
+        this.timeSource = TimeSource.SYSTEM;
+        this.pendingRequests = new PendingRequests();
+        this.pooledVehicles = new FleetGrid(FleetGrid.DEFAULT_CELL_SIZE, false);
+        this.metrics = new FleetMetrics();
     }
     
     // Fleet management
     public void addVehicle(Vehicle vehicle) {
         fleet.add(vehicle);
+        register(vehicle);
     }
     
-    public List<Vehicle> getFleet() {
-        return new ArrayList<>(fleet);
+    /**
+     * Adds vehicles in one go; the fleet list is copied once rather than
+     * once per vehicle, which matters for fleets of many thousands
+     */
+    public void addVehicles(Collection<? extends Vehicle> vehicles) {
+        fleet.addAll(vehicles);
+        for (Vehicle vehicle : vehicles) {
+            register(vehicle);
+        }
     }
     
-    public List<Vehicle> getAvailableVehicles() {
-        return fleet.stream()
-                   .filter(Vehicle::isAvailable)
-                   .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+    private void register(Vehicle vehicle) {
+        vehiclesById.put(vehicle.getVehicleId(), vehicle);
+        fleetStore.add(vehicle);
+        vehicle.restartStatusTimer(timeSource.epochNanos());
+        vehicle.setListener(fleetIndexUpdater);
+        if (vehicle.isAvailable()) {
+            availableByType.get(vehicle.getType()).insert(vehicle, vehicle.getCurrentLocation());
+            if (maxPendingWaitNanos > 0) {
+                servePending(vehicle);
+            }
+        }
     }
     
     /**
-     * Core business method: Schedule a vehicle for pickup
-     * Returns true if successful, false if no vehicle available
+     * Routes dispatch and driver events to the given sink; null disables logging
      */
-    public boolean scheduleVehicle(Passenger passenger, Location pickupLocation, Location destinationLocation) {
-        // Find available vehicle that can accommodate the group
-        Optional<Vehicle> availableVehicle = fleet.stream()
-            .filter(v -> v.isAvailable() && v.canAccommodate(passenger.getGroupSize()))
-            .findFirst();
-        
-        if (availableVehicle.isPresent()) {
-            Vehicle vehicle = availableVehicle.get();
-            Trip trip = new Trip(passenger, pickupLocation, destinationLocation);
-            
-            // Assign trip to vehicle
-            trip.assignVehicle(vehicle);
-            vehicle.assignTrip(trip);
-            activeTrips.add(trip);
-            
-            System.out.printf("✓ Trip scheduled: %s assigned to %s%n", trip, vehicle);
-            return true;
-        } else {
-            // No available vehicle - lost fare
-            Trip lostTrip = new Trip(passenger, pickupLocation, destinationLocation);
-            lostFares.add(lostTrip);
-            System.out.printf("✗ Lost fare: No available vehicle for %s%n", passenger);
-            return false;
-        }
+    public void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink != null ? eventSink : EventSink.NO_OP;
     }
     
-    // Driver notification methods
-    public void notifyArrivedAtPickup(int vehicleId) {
-        Vehicle vehicle = findVehicleById(vehicleId);
-        if (vehicle != null && vehicle.getCurrentTrip() != null) {
-            vehicle.setStatus(VehicleStatus.PICKING_UP);
-            vehicle.getCurrentTrip().markPickedUp();
-            System.out.printf("Driver of %s arrived at pickup location%n", vehicle.getLicensePlate());
-        }
+    /**
+     * Appends every completed trip and lost fare to the given journal; null stops journaling
+     */
+    public void setTripJournal(TripJournal tripJournal) {
+        this.tripJournal = tripJournal;
     }
     
-    public void notifyDroppedOff(int vehicleId) {
-        Vehicle vehicle = findVehicleById(vehicleId);
-        if (vehicle != null && vehicle.getCurrentTrip() != null) {
-            Trip trip = vehicle.getCurrentTrip();
-            trip.markDroppedOff();
-            vehicle.setCurrentLocation(trip.getDestinationLocation());
-            
-            // Move trip from active to completed
-            activeTrips.remove(trip);
-            completedTrips.add(trip);
-            vehicle.completeTrip();
-            
-            System.out.printf("Trip completed: %s dropped off at %s%n", 
-                            trip.getPassenger().getName(), trip.getDestinationLocation());
+    /**
+     * Sets the clock used to timestamp trips and events, e.g. a simulated clock
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+    
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+    
+    /**
+     * Lets requests that find no vehicle wait up to the given time for one
+     * to free up before they count as lost fares; 0, the default, loses them at once
+     */
+    public void setMaxPendingWaitMillis(long maxPendingWaitMillis) {
+        if (maxPendingWaitMillis < 0) {
+            throw new IllegalArgumentException("Pending wait must not be negative");
         }
+        this.maxPendingWaitNanos = maxPendingWaitMillis * 1_000_000L;
+        expirePendingRequests();
     }
     
-    // Helper methods
-    private Vehicle findVehicleById(int vehicleId) {
-        return fleet.stream()
-                   .filter(v -> v.getVehicleId() == vehicleId)
-                   .findFirst()
-                   .orElse(null);
+    public long getMaxPendingWaitMillis() {
+        return maxPendingWaitNanos / 1_000_000L;
     }
     
-    // Analytics and reporting
-    public int getTotalLostFares() {
-        return lostFares.size();
+    /**
+     * Lets poolable vehicles (see VehicleType.isPoolable) pick up further
+     * groups on their way, when a new trip fits into the route within
+     * RoutePlan.MAX_DETOUR for less extra distance than sending a free vehicle
+     */
+    public void setRidePooling(boolean ridePooling) {
+        this.ridePooling = ridePooling;
     }
     
-    public int getTotalCompletedTrips() {
-        return completedTrips.size();
+    public boolean isRidePooling() {
+        return ridePooling;
     }
     
-    public int getActiveTripsCount() {
-        return activeTrips.size();
+    /**
+     * Number of requests waiting for a vehicle, after dropping those past their deadline
+     */
+    public int getPendingRequestCount() {
+        synchronized (pendingRequests) {
+            expirePending(timeSource.epochNanos());
+            return pendingRequests.size();
+        }
     }
     
-    public List<Trip> getLostFares() {
-        return new ArrayList<>(lostFares);
+    /**
+     * Turns pending requests past their deadline into lost fares. Deadlines
+     * are also enforced whenever requests are scheduled or trips complete;
+     * call this to settle them while the company is otherwise idle.
+     */
+    public void expirePendingRequests() {
+        synchronized (pendingRequests) {
+            expirePending(timeSource.epochNanos());
+        }
     }
     
-    public List<Trip> getCompletedTrips() {
-        return new ArrayList<>(completedTrips);
+    public List<Vehicle> getFleet() {
+        return new ArrayList<>(fleet);
     }
     
-    public String getName() {
-        return name;
+    public List<Vehicle> getAvailableVehicles() {
+        return fleetStore.availableVehicles();
     }
     
-    @Override
-    public String toString() {
-        return String.format("Company{name='%s', fleet=%d vehicles, completed=%d trips, lost=%d fares}", 
-                           name, fleet.size(), completedTrips.size(), lostFares.size());
+    public int getAvailableVehicleCount() {
+        return fleetStore.availableCount();
     }
-}
-
-/**
- * PassengerSource class as specified in the requirements
- */
-class PassengerSource {
-    private final Company company;
-    private final Random random;
     
     /**
-     * Constructor taking a Company object
+     * Core business method: Schedule a vehicle for pickup
+     * Returns true if successful, false if no vehicle available; with a
+     * pending wait set, such a request keeps waiting and may still be served
      */
-    public PassengerSource(Company company) {
-        this.company = company;
-        this.random = new Random();
+    public boolean scheduleVehicle(Passenger passenger, Location pickupLocation, Location destinationLocation) {
+        return scheduleTrip(passenger, pickupLocation, destinationLocation).getAssignedVehicle() != null;
     }
     
     /**
-     * Creates a new Passenger, generates random pickup and destination Location objects
-     * with x and y coordinates ranging from 0 to 100, and uses the company to schedule a vehicle.
-     * Returns true if the company successfully schedules the pickup and false otherwise.
+     * Same as scheduleVehicle, but returns the trip: assigned to a vehicle
+     * if one was found, otherwise pending or recorded as a lost fare with no vehicle
      */
-    public boolean requestPickup() {
-        // Create a new passenger with random data
-        String[] names = {"John Doe", "Jane Smith", "Alice Johnson", "Bob Wilson", "Carol Brown"};
-        String[] phones = {"+256701234567", "+256702345678", "+256703456789", "+256704567890", "+256705678901"};
-        
-        String name = names[random.nextInt(names.length)];
-        String phone = phones[random.nextInt(phones.length)];
-        int groupSize = random.nextInt(6) + 1; // 1-6 passengers
-        
-        Passenger passenger = new Passenger(name, phone, groupSize);
+    public Trip scheduleTrip(Passenger passenger, Location pickupLocation, Location destinationLocation) {
+        long start = System.nanoTime();
+        Trip trip = new Trip(passenger, pickupLocation, destinationLocation, timeSource.epochNanos());
+        dispatch(trip);
+        metrics.recordDispatch(System.nanoTime() - start);
+        return trip;
+    }
+    
+    /**
+     * Schedules a burst of requests together, assigning vehicles to minimise
+     * total pickup distance plus idle seats (see AssignmentSolver) rather than
+     * serving each request greedily in arrival order.
+     * Returns one trip per request, in request order; lost fares have no assigned vehicle.
+     */
+    public List<Trip> scheduleBatch(List<PickupRequest> requests) {
+        long start = System.nanoTime();
+        int requestCount = requests.size();
+        List<Trip> trips = new ArrayList<>(requestCount);
+        long requestTime = timeSource.epochNanos();
+        for (PickupRequest request : requests) {
+            trips.add(new Trip(request.getPassenger(), request.getPickupLocation(), request.getDestinationLocation(),
+                               requestTime));
+        }
         
-        // Generate random pickup location (0-100 range)
-        int pickupX = random.nextInt(101);
-        int pickupY = random.nextInt(101);
-        Location pickupLocation = new Location(pickupX, pickupY, "Pickup " + pickupX + "," + pickupY);
+        // Candidate vehicles: the few nearest of each type large enough for each request
+        Map<Vehicle, Integer> candidateColumns = new LinkedHashMap<>();
+        List<Vehicle> nearby = new ArrayList<>();
+        for (PickupRequest request : requests) {
+            for (Map.Entry<VehicleType, FleetGrid> entry : availableByType.entrySet()) {
+                if (entry.getKey().getCapacity() >= request.getPassenger().getGroupSize()) {
+                    nearby.clear();
+                    entry.getValue().nearest(request.getPickupLocation(), AssignmentSolver.CANDIDATES_PER_TYPE, nearby);
+                    for (Vehicle vehicle : nearby) {
+                        candidateColumns.putIfAbsent(vehicle, candidateColumns.size());
+                    }
+                }
+            }
+        }
+        List<Vehicle> candidates = new ArrayList<>(candidateColumns.keySet());
         
-        // Generate random destination location (0-100 range)
-        int destX = random.nextInt(101);
-        int destY = random.nextInt(101);
-        Location destinationLocation = new Location(destX, destY, "Destination " + destX + "," + destY);
+        int[] assignment = AssignmentSolver.assign(requests, candidates);
         
-        // Use the company to schedule a vehicle
-        return company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+        // Claim the jointly chosen vehicles first, then serve leftovers greedily
+        boolean[] settled = new boolean[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            if (assignment[i] >= 0) {
+                Vehicle vehicle = candidates.get(assignment[i]);
+                Trip trip = trips.get(i);
+                trip.assignVehicle(vehicle);
+                if (vehicle.tryAssignTrip(trip)) {
+                    recordScheduled(trip, vehicle);
+                    settled[i] = true;
+                } else {
+                    trip.assignVehicle(null);
+                }
+            }
+        }
+        for (int i = 0; i < requestCount; i++) {
+            if (!settled[i]) {
+                dispatch(trips.get(i));
+            }
+        }
+        // Every request in the batch waited for the whole batch
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < requestCount; i++) {
+            metrics.recordDispatch(elapsed);
+        }
+        return trips;
     }
     
-    public Company getCompany() {
-        return company;
+    private boolean dispatch(Trip trip) {
+        // Prefer joining a pooled route that passes nearby, then claim the
+        // nearest available vehicle that can accommodate the group,
+        // retrying if a concurrent dispatcher claims it first
+        Vehicle vehicle = ridePooling ? joinPooledRoute(trip) : null;
+        if (vehicle != null) {
+            recordScheduled(trip, vehicle);
+            return true;
+        }
+        vehicle = claimNearest(trip);
+        if (vehicle == null && maxPendingWaitNanos > 0
+                && trip.getPassenger().getGroupSize() <= PendingRequests.MAX_GROUP_SIZE) {
+            synchronized (pendingRequests) {
+                // Vehicles free up under this lock, so one freed since the search above is found now
+                vehicle = claimNearest(trip);
+                if (vehicle == null) {
+                    expirePending(timeSource.epochNanos());
+                    pendingRequests.add(trip);
+                    return false;
+                }
+            }
+        }
+        
+        if (vehicle != null) {
+            recordScheduled(trip, vehicle);
+            return true;
+        } else {
+            // No available vehicle - lost fare
+            recordLost(trip);
+            return false;
+        }
     }
-}
-
-// =============================================================================
-// JUNIT TESTS FOR COMPANY CLASS
-// =============================================================================
-
-import org.junit.Before;
-import org.junit.Test;
-import static org.junit.Assert.*;
-
-public class CompanyTest {
-    private Company company;
-    private Vehicle taxi;
-    private Vehicle shuttle;
-    private Passenger passenger;
-    private Location pickupLocation;
-    private Location destinationLocation;
     
-    @Before
-    public void setUp() {
-        company = new Company("BALEXTRANIT (U) LTD");
-        taxi = new Vehicle("UAB-123A", VehicleType.TAXI, "James Mukasa", new Location(10, 10));
-        shuttle = new Vehicle("UAB-456B", VehicleType.SHUTTLE, "Mary Nakato", new Location(20, 20));
-        passenger = new Passenger("Test Passenger", "+256701234567", 2);
-        pickupLocation = new Location(30, 30, "Kampala Road");
-        destinationLocation = new Location(40, 40, "Entebbe Airport");
+    private Vehicle claimNearest(Trip trip) {
+        Vehicle vehicle;
+        do {
+            vehicle = findNearestAvailableVehicle(trip.getPickupLocation(), trip.getPassenger().getGroupSize());
+            trip.assignVehicle(vehicle);
+        } while (vehicle != null && !vehicle.tryAssignTrip(trip));
+        return vehicle;
     }
     
     /**
-     * Test 1: Test successful vehicle scheduling when vehicles are available
+     * Inserts the trip into the route of one of the nearest pooled vehicles
+     * if that costs less distance than a free vehicle driving to the pickup
+     * and on to the destination; returns the vehicle, or null to dispatch normally
      */
-    @Test
-    public void testScheduleVehicle_Success() {
-        // Add vehicles to company fleet
-        company.addVehicle(taxi);
-        company.addVehicle(shuttle);
-        
-        // Schedule a vehicle for pickup
-        boolean result = company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
-        
+    private Vehicle joinPooledRoute(Trip trip) {
+        if (pooledVehicles.size() == 0) {
+            return null;
+        }
+        Location pickup = trip.getPickupLocation();
+        int groupSize = trip.getPassenger().getGroupSize();
+        List<Vehicle> candidates = new ArrayList<>(POOL_CANDIDATES);
+        pooledVehicles.nearest(pickup, POOL_CANDIDATES, candidates);
+        Vehicle best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (Vehicle candidate : candidates) {
+            synchronized (candidate) {
+                RoutePlan route = candidate.getRoute();
+                if (route != null) {
+                    double cost = route.insertionCost(trip, candidate.getType().getCapacity());
+                    if (cost < bestCost) {
+                        best = candidate;
+                        bestCost = cost;
+                    }
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        Vehicle free = findNearestAvailableVehicle(pickup, groupSize);
+        if (free != null && free.getCurrentLocation().distanceTo(pickup)
+                + pickup.distanceTo(trip.getDestinationLocation()) <= bestCost) {
+            return null;
+        }
+        synchronized (best) {
+            // The route may have moved on since it was costed; insert re-checks it
+            RoutePlan route = best.getRoute();
+            if (route == null || !route.insert(trip, best.getType().getCapacity())) {
+                return null;
+            }
+            trip.assignVehicle(best);
+        }
+        return best;
+    }
+    
+    private void recordLost(Trip trip) {
+        recordLostFare(trip);
+        publish(DispatchEventType.LOST_FARE, trip, null, trip.getPickupLocation());
+    }
+    
+    // Caller holds the pendingRequests lock
+    private void expirePending(long now) {
+        long maxWait = maxPendingWaitNanos;
+        Trip expired;
+        while ((expired = pendingRequests.pollExpired(now - maxWait)) != null) {
+            recordLost(expired);
+        }
+    }
+    
+    /**
+     * Hands a vehicle that just became available to a pending request, if any
+     */
+    private void servePending(Vehicle vehicle) {
+        Trip next;
+        synchronized (pendingRequests) {
+            expirePending(timeSource.epochNanos());
+            next = pendingRequests.pollFor(vehicle.getType().getCapacity(), vehicle.getCurrentLocation());
+            if (next == null) {
+                return;
+            }
+            if (!vehicle.tryAssignTrip(next)) {
+                pendingRequests.addFirst(next); // Claimed by a dispatcher meanwhile; keep its place
+                return;
+            }
+        }
+        next.assignVehicle(vehicle);
+        recordScheduled(next, vehicle);
+    }
+    
+    private void recordLostFare(Trip trip) {
+        lostFares.add(trip);
+        lostCount.increment();
+        TripJournal journal = tripJournal;
+        if (journal != null) {
+            journal.append(trip, false);
+        }
+    }
+    
+    private void recordCompleted(Trip trip) {
+        completedTrips.add(trip);
+        completedCount.increment();
+        metrics.recordCompleted(trip);
+        TripJournal journal = tripJournal;
+        if (journal != null) {
+            journal.append(trip, true);
+        }
+    }
+    
+    /**
+     * Adds a trip recovered from a journal to the history without journaling it again
+     */
+    void restoreTrip(Trip trip, boolean completed) {
+        if (completed) {
+            completedTrips.add(trip);
+            completedCount.increment();
+        } else {
+            lostFares.add(trip);
+            lostCount.increment();
+        }
+    }
+    
+    private void recordScheduled(Trip trip, Vehicle vehicle) {
+        if (ridePooling && vehicle.getType().isPoolable()) {
+            synchronized (vehicle) {
+                if (vehicle.getRoute() == null) {
+                    // First trip of a route others may now join
+                    vehicle.setRoute(new RoutePlan(trip));
+                    pooledVehicles.insert(vehicle, vehicle.getCurrentLocation());
+                }
+            }
+        }
+        activeCount.increment();
+        publish(DispatchEventType.TRIP_SCHEDULED, trip, vehicle, trip.getPickupLocation());
+    }
+    
+    private void publish(DispatchEventType type, Trip trip, Vehicle vehicle, Location location) {
+        eventSink.publish(type, timeSource.epochNanos(), trip.getTripId(),
+                          vehicle != null ? vehicle.getVehicleId() : 0,
+                          trip.getPassenger().getPassengerId(), location.getX(), location.getY());
+    }
+    
+    // Driver notification methods
+    public void notifyArrivedAtPickup(int vehicleId) {
+        Vehicle vehicle = findVehicleById(vehicleId);
+        if (vehicle == null) {
+            return;
+        }
+        synchronized (vehicle) {
+            RoutePlan route = vehicle.getRoute();
+            Trip trip;
+            if (route != null) {
+                Stop stop = route.peek();
+                if (stop == null || !stop.isPickup()) {
+                    return; // Not heading for a pickup
+                }
+                route.completeNextStop();
+                trip = stop.getTrip();
+            } else {
+                trip = vehicle.getCurrentTrip();
+            }
+            if (trip != null) {
+                vehicle.setCurrentLocation(trip.getPickupLocation());
+                vehicle.setStatus(VehicleStatus.PICKING_UP);
+                trip.markPickedUp(timeSource.epochNanos());
+                if (route != null) {
+                    vehicle.setCurrentTrip(route.peek().getTrip());
+                }
+                publish(DispatchEventType.ARRIVED_AT_PICKUP, trip, vehicle, trip.getPickupLocation());
+            }
+        }
+    }
+    
+    public void notifyDroppedOff(int vehicleId) {
+        Vehicle vehicle = findVehicleById(vehicleId);
+        if (vehicle == null) {
+            return;
+        }
+        synchronized (vehicle) {
+            RoutePlan route = vehicle.getRoute();
+            Trip trip;
+            if (route != null) {
+                Stop stop = route.peek();
+                if (stop == null || stop.isPickup()) {
+                    return; // Not heading for a drop-off
+                }
+                route.completeNextStop();
+                trip = stop.getTrip();
+            } else {
+                trip = vehicle.getCurrentTrip();
+            }
+            if (trip != null) {
+                trip.markDroppedOff(timeSource.epochNanos());
+                vehicle.setCurrentLocation(trip.getDestinationLocation());
+                
+                // Move trip from active to completed
+                activeCount.decrement();
+                recordCompleted(trip);
+                if (route != null && !route.isEmpty()) {
+                    // On to the next stop of the pooled route
+                    vehicle.setCurrentTrip(route.peek().getTrip());
+                    vehicle.setStatus(route.getAboard() > 0 ? VehicleStatus.TRANSPORTING
+                                                            : VehicleStatus.EN_ROUTE_TO_PICKUP);
+                    publish(DispatchEventType.TRIP_COMPLETED, trip, vehicle, trip.getDestinationLocation());
+                    return;
+                }
+                if (route != null) {
+                    vehicle.setRoute(null);
+                    pooledVehicles.remove(vehicle, vehicle.getCurrentLocation());
+                }
+                Trip next = null;
+                if (maxPendingWaitNanos > 0) {
+                    next = completeAndTakePending(vehicle);
+                } else {
+                    vehicle.completeTrip();
+                }
+                
+                publish(DispatchEventType.TRIP_COMPLETED, trip, vehicle, trip.getDestinationLocation());
+                if (next != null) {
+                    // Straight on to the pending request, never passing through AVAILABLE
+                    next.assignVehicle(vehicle);
+                    vehicle.assignTrip(next);
+                    recordScheduled(next, vehicle);
+                }
+            }
+        }
+    }
+    
+    // Helper methods
+    
+    /**
+     * Takes a pending request for the vehicle (see PendingRequests.pollFor);
+     * if there is none, frees the vehicle while still holding the lock, so a
+     * request queued concurrently either sees it available or is taken here
+     */
+    private Trip completeAndTakePending(Vehicle vehicle) {
+        synchronized (pendingRequests) {
+            expirePending(timeSource.epochNanos());
+            Trip next = pendingRequests.pollFor(vehicle.getType().getCapacity(), vehicle.getCurrentLocation());
+            if (next == null) {
+                vehicle.completeTrip();
+            }
+            return next;
+        }
+    }
+    
+    private Vehicle findNearestAvailableVehicle(Location pickupLocation, int groupSize) {
+        if (!fleetStore.hasAvailable(groupSize)) {
+            return null; // Nothing free is large enough; skip the spatial search
+        }
+        Vehicle nearest = null;
+        long nearestDistance = Long.MAX_VALUE;
+        for (Map.Entry<VehicleType, FleetGrid> entry : availableByType.entrySet()) {
+            if (entry.getKey().getCapacity() < groupSize || fleetStore.availableCount(entry.getKey()) == 0) {
+                continue;
+            }
+            Vehicle candidate = entry.getValue().nearest(pickupLocation);
+            if (candidate != null) {
+                long distance = candidate.getCurrentLocation().distanceSquaredTo(pickupLocation);
+                if (distance < nearestDistance) {
+                    nearest = candidate;
+                    nearestDistance = distance;
+                }
+            }
+        }
+        return nearest;
+    }
+    
+    private static final int POOL_CANDIDATES = 8; // Pooled routes costed per request
+    
+    // Keeps the spatial indexes in step with vehicle movement and availability
+    private final VehicleListener fleetIndexUpdater = new VehicleListener() {
+        @Override
+        public void onLocationChanged(Vehicle vehicle, Location oldLocation) {
+            if (vehicle.isAvailable()) {
+                availableByType.get(vehicle.getType()).move(vehicle, oldLocation, vehicle.getCurrentLocation());
+            } else if (vehicle.getRoute() != null) {
+                pooledVehicles.move(vehicle, oldLocation, vehicle.getCurrentLocation());
+            }
+        }
+        
+        @Override
+        public void onStatusChanged(Vehicle vehicle, VehicleStatus oldStatus, VehicleStatus newStatus) {
+            fleetStore.updateStatus(vehicle, newStatus);
+            metrics.recordStatusTime(vehicle.getType(), oldStatus, vehicle.restartStatusTimer(timeSource.epochNanos()));
+            FleetGrid grid = availableByType.get(vehicle.getType());
+            if (oldStatus == VehicleStatus.AVAILABLE) {
+                grid.remove(vehicle, vehicle.getCurrentLocation());
+            } else if (newStatus == VehicleStatus.AVAILABLE) {
+                grid.insert(vehicle, vehicle.getCurrentLocation());
+            }
+        }
+        
+        @Override
+        public void onBecameAvailable(Vehicle vehicle) {
+            // Back from maintenance, offline or a trip: serve requests that queued meanwhile
+            if (maxPendingWaitNanos > 0) {
+                servePending(vehicle);
+            }
+        }
+    };
+    
+    Vehicle findVehicleById(int vehicleId) {
+        return vehiclesById.get(vehicleId);
+    }
+    
+    // Analytics and reporting
+    public int getTotalLostFares() {
+        return lostCount.intValue();
+    }
+    
+    public int getTotalCompletedTrips() {
+        return completedCount.intValue();
+    }
+    
+    public int getActiveTripsCount() {
+        return activeCount.intValue();
+    }
+    
+    /**
+     * Point-in-time view of the live metrics: request and trip counters,
+     * dispatch latency, wait and ride time distributions, and time spent
+     * in each status per vehicle type up to now
+     */
+    public MetricsSnapshot snapshotMetrics() {
+        return metrics.snapshot(timeSource.epochNanos(), fleet, completedCount.sum(), lostCount.sum(),
+                                activeCount.sum(), getPendingRequestCount());
+    }
+    
+    /**
+     * Snapshot of the lost fares still within the retention policy, oldest first
+     */
+    public List<Trip> getLostFares() {
+        return lostFares.snapshot();
+    }
+    
+    /**
+     * Snapshot of the completed trips still within the retention policy, oldest first
+     */
+    public List<Trip> getCompletedTrips() {
+        return completedTrips.snapshot();
+    }
+    
+    /**
+     * Per-hour totals for every completed trip, including those no longer retained
+     */
+    public List<HourlyTripStats> getCompletedTripStats() {
+        return completedTrips.hourlyStats();
+    }
+    
+    /**
+     * Per-hour totals for every lost fare, including those no longer retained
+     */
+    public List<HourlyTripStats> getLostFareStats() {
+        return lostFares.hourlyStats();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Company{name='%s', fleet=%d vehicles, completed=%d trips, lost=%d fares}", 
+                           name, fleet.size(), getTotalCompletedTrips(), getTotalLostFares());
+    }
+}
+
+/**
+ * PassengerSource class as specified in the requirements. Requests are
+ * drawn from a DemandModel; a source is meant for one thread at a time.
+ */
+class PassengerSource {
+    private static final String[] NAMES = {"John Doe", "Jane Smith", "Alice Johnson", "Bob Wilson", "Carol Brown"};
+    private static final String[] PHONES = {"+256701234567", "+256702345678", "+256703456789", "+256704567890", "+256705678901"};
+    
+    private final Company company;
+    private final DemandModel demand;
+    private final RandomGenerator random;
+    private final DemandSample sample = new DemandSample(); // Reused for every request
+    
+    /**
+     * Constructor taking a Company object
+     */
+    public PassengerSource(Company company) {
+        this(company, new SplittableRandom());
+    }
+    
+    /**
+     * Constructor taking the random source, so request streams can be reproduced;
+     * sources used from different threads should each get their own, e.g. via SplittableRandom.split
+     */
+    public PassengerSource(Company company, RandomGenerator random) {
+        this(company, UniformDemand.DEFAULT, random);
+    }
+    
+    /**
+     * Constructor taking the demand model that places and times requests
+     */
+    public PassengerSource(Company company, DemandModel demand, RandomGenerator random) {
+        this.company = company;
+        this.demand = demand;
+        this.random = random;
+    }
+    
+    /**
+     * Creates a new Passenger, generates random pickup and destination Location objects
+     * with x and y coordinates ranging from 0 to 100, and uses the company to schedule a vehicle.
+     * Returns true if the company successfully schedules the pickup and false otherwise.
+     */
+    public boolean requestPickup() {
+        PickupRequest request = nextRequest();
+        if (request == null) {
+            return false; // Demand exhausted
+        }
+        
+        // Use the company to schedule a vehicle
+        return company.scheduleVehicle(request.getPassenger(), request.getPickupLocation(),
+                                       request.getDestinationLocation());
+    }
+    
+    /**
+     * Creates the next pickup request without scheduling it, e.g. to collect
+     * requests into a DispatchWindow; null once the demand model is exhausted
+     */
+    public PickupRequest nextRequest() {
+        if (!demand.next(random, sample)) {
+            return null;
+        }
+        // Create a new passenger with random data
+        String name = NAMES[random.nextInt(NAMES.length)];
+        String phone = PHONES[random.nextInt(PHONES.length)];
+        Passenger passenger = new Passenger(name, phone, sample.groupSize);
+        
+        return new PickupRequest(passenger, Location.of(sample.pickupX, sample.pickupY),
+                                 Location.of(sample.destinationX, sample.destinationY));
+    }
+    
+    /**
+     * Time between the previous request and the one last returned by nextRequest
+     */
+    public long getLastArrivalGapNanos() {
+        return sample.arrivalGapNanos;
+    }
+    
+    public DemandModel getDemandModel() {
+        return demand;
+    }
+    
+    public Company getCompany() {
+        return company;
+    }
+}
+
+// =============================================================================
+// DEMAND MODELS
+// =============================================================================
+
+/**
+ * One generated request, filled in place so generators do not allocate
+ */
+class DemandSample {
+    long arrivalGapNanos; // Since the previous request
+    int pickupX;
+    int pickupY;
+    int destinationX;
+    int destinationY;
+    int groupSize;
+}
+
+/**
+ * Generates where, when and for how many people pickup requests arrive.
+ * Randomness comes only from the generator passed in, so a seeded
+ * generator reproduces the same stream. Models that keep state, such as
+ * a position in a trace or the time of day, serve one source at a time.
+ */
+interface DemandModel {
+    /**
+     * Fills the next request into sample; returns false once the model is exhausted
+     */
+    boolean next(RandomGenerator random, DemandSample sample);
+}
+
+/**
+ * Poisson arrivals at a constant rate with pickups and destinations spread
+ * evenly over the 0-100 grid and groups of 1-6, as PassengerSource always drew
+ */
+class UniformDemand implements DemandModel {
+    static final UniformDemand DEFAULT = new UniformDemand(1.0);
+    
+    private final double requestsPerSecond;
+    
+    public UniformDemand(double requestsPerSecond) {
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("Request rate must be positive");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+    }
+    
+    @Override
+    public boolean next(RandomGenerator random, DemandSample sample) {
+        sample.arrivalGapNanos = exponentialNanos(random, requestsPerSecond);
+        sample.pickupX = random.nextInt(Location.GRID_SIZE);
+        sample.pickupY = random.nextInt(Location.GRID_SIZE);
+        sample.destinationX = random.nextInt(Location.GRID_SIZE);
+        sample.destinationY = random.nextInt(Location.GRID_SIZE);
+        sample.groupSize = random.nextInt(6) + 1; // 1-6 passengers
+        return true;
+    }
+    
+    /**
+     * Inter-arrival time of a Poisson process with the given rate
+     */
+    static long exponentialNanos(RandomGenerator random, double ratePerSecond) {
+        return (long) (-Math.log(1.0 - random.nextDouble()) / ratePerSecond * 1e9);
+    }
+}
+
+/**
+ * Centre, Gaussian spread (standard deviation in grid units) and relative
+ * weight of one demand hotspot
+ */
+class Hotspot {
+    private final Location center;
+    private final double spread;
+    private final double weight;
+    
+    public Hotspot(Location center, double spread, double weight) {
+        if (!(spread >= 0) || !(weight > 0)) {
+            throw new IllegalArgumentException("Hotspot spread must be non-negative and weight positive");
+        }
+        this.center = center;
+        this.spread = spread;
+        this.weight = weight;
+    }
+    
+    // Getters
+    public Location getCenter() { return center; }
+    public double getSpread() { return spread; }
+    public double getWeight() { return weight; }
+}
+
+/**
+ * Poisson arrivals whose pickups cluster around weighted hotspots (markets,
+ * the taxi park, the airport road); a background share of requests still
+ * comes from anywhere on the grid. Destinations are uniform.
+ */
+class HotspotDemand implements DemandModel {
+    private final double requestsPerSecond;
+    private final int[] centerX;
+    private final int[] centerY;
+    private final double[] spread;
+    private final double[] cumulativeWeights; // Normalised to end at 1
+    private final double backgroundShare;
+    
+    public HotspotDemand(double requestsPerSecond, List<Hotspot> hotspots, double backgroundShare) {
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("Request rate must be positive");
+        }
+        if (!(backgroundShare >= 0 && backgroundShare <= 1)) {
+            throw new IllegalArgumentException("Background share must be between 0 and 1");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.backgroundShare = backgroundShare;
+        int count = hotspots.size();
+        this.centerX = new int[count];
+        this.centerY = new int[count];
+        this.spread = new double[count];
+        this.cumulativeWeights = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            Hotspot hotspot = hotspots.get(i);
+            centerX[i] = hotspot.getCenter().getX();
+            centerY[i] = hotspot.getCenter().getY();
+            spread[i] = hotspot.getSpread();
+            total += hotspot.getWeight();
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < count; i++) {
+            cumulativeWeights[i] /= total;
+        }
+    }
+    
+    @Override
+    public boolean next(RandomGenerator random, DemandSample sample) {
+        sample.arrivalGapNanos = UniformDemand.exponentialNanos(random, requestsPerSecond);
+        if (centerX.length == 0 || random.nextDouble() < backgroundShare) {
+            sample.pickupX = random.nextInt(Location.GRID_SIZE);
+            sample.pickupY = random.nextInt(Location.GRID_SIZE);
+        } else {
+            int hotspot = pickHotspot(random.nextDouble());
+            sample.pickupX = clamp(centerX[hotspot] + random.nextGaussian() * spread[hotspot]);
+            sample.pickupY = clamp(centerY[hotspot] + random.nextGaussian() * spread[hotspot]);
+        }
+        sample.destinationX = random.nextInt(Location.GRID_SIZE);
+        sample.destinationY = random.nextInt(Location.GRID_SIZE);
+        sample.groupSize = random.nextInt(6) + 1;
+        return true;
+    }
+    
+    private int pickHotspot(double u) {
+        int index = Arrays.binarySearch(cumulativeWeights, u);
+        index = index >= 0 ? index + 1 : -index - 1;
+        return Math.min(index, cumulativeWeights.length - 1);
+    }
+    
+    private static int clamp(double coordinate) {
+        return (int) Math.max(0, Math.min(Location.GRID_SIZE - 1, Math.round(coordinate)));
+    }
+}
+
+/**
+ * Arrivals from a non-homogeneous Poisson process with a rate per hour of
+ * the day, generated by thinning; where requests go comes from another
+ * model, whose own arrival times are ignored. Keeps the simulated time of
+ * day, so one instance serves one source.
+ */
+class TimeOfDayDemand implements DemandModel {
+    private static final long HOUR_NANOS = 3_600_000_000_000L;
+    private static final long DAY_NANOS = 24 * HOUR_NANOS;
+    
+    private final double[] hourlyRates; // Requests per second for each hour
+    private final double peakRate;
+    private final DemandModel placement;
+    private long timeOfDayNanos;
+    
+    /**
+     * @param hourlyRates 24 request rates per second, from midnight
+     * @param startHour hour of the day the first request is timed from
+     */
+    public TimeOfDayDemand(double[] hourlyRates, int startHour, DemandModel placement) {
+        if (hourlyRates.length != 24) {
+            throw new IllegalArgumentException("Expected 24 hourly rates, got " + hourlyRates.length);
+        }
+        double peak = 0;
+        for (double rate : hourlyRates) {
+            if (!(rate >= 0)) {
+                throw new IllegalArgumentException("Hourly rates must be non-negative");
+            }
+            peak = Math.max(peak, rate);
+        }
+        if (peak == 0) {
+            throw new IllegalArgumentException("At least one hour needs a positive rate");
+        }
+        this.hourlyRates = hourlyRates.clone();
+        this.peakRate = peak;
+        this.placement = placement;
+        this.timeOfDayNanos = Math.floorMod(startHour, 24) * HOUR_NANOS;
+    }
+    
+    @Override
+    public boolean next(RandomGenerator random, DemandSample sample) {
+        if (!placement.next(random, sample)) {
+            return false;
+        }
+        // Draw candidates at the peak rate and keep each with probability rate(t) / peak
+        long gap = 0;
+        while (true) {
+            long step = UniformDemand.exponentialNanos(random, peakRate);
+            gap += step;
+            timeOfDayNanos = (timeOfDayNanos + step) % DAY_NANOS;
+            if (random.nextDouble() * peakRate < hourlyRates[(int) (timeOfDayNanos / HOUR_NANOS)]) {
+                break;
+            }
+        }
+        sample.arrivalGapNanos = gap;
+        return true;
+    }
+}
+
+/**
+ * Replays historic pickups from a CSV trace with one request per line:
+ * epoch milliseconds, pickup x, pickup y, destination x, destination y and
+ * group size. Blank lines and lines starting with '#' or a header are
+ * skipped; rows are held in primitive columns and replayed in file order.
+ */
+class TraceDemand implements DemandModel {
+    private final long[] timesMillis;
+    private final int[] coordinates; // Four per row: pickup x, y, destination x, y
+    private final int[] groupSizes;
+    private final boolean loop;
+    private int cursor;
+    
+    private TraceDemand(long[] timesMillis, int[] coordinates, int[] groupSizes, boolean loop) {
+        this.timesMillis = timesMillis;
+        this.coordinates = coordinates;
+        this.groupSizes = groupSizes;
+        this.loop = loop;
+    }
+    
+    /**
+     * Loads a trace; with loop set, replay starts over after the last row
+     */
+    public static TraceDemand load(Path path, boolean loop) {
+        long[] times = new long[1024];
+        int[] coordinates = new int[4 * 1024];
+        int[] groups = new int[1024];
+        int rows = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#' || (rows == 0 && !Character.isDigit(line.charAt(0)))) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 6) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber + ": expected 6 fields, got " + fields.length);
+                }
+                if (rows == times.length) {
+                    times = Arrays.copyOf(times, rows * 2);
+                    coordinates = Arrays.copyOf(coordinates, rows * 8);
+                    groups = Arrays.copyOf(groups, rows * 2);
+                }
+                try {
+                    times[rows] = Long.parseLong(fields[0].trim());
+                    for (int i = 0; i < 4; i++) {
+                        coordinates[4 * rows + i] = Integer.parseInt(fields[1 + i].trim());
+                    }
+                    groups[rows] = Integer.parseInt(fields[5].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+                if (groups[rows] <= 0 || (rows > 0 && times[rows] < times[rows - 1])) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber + ": group size must be positive "
+                                                     + "and times must not go backwards");
+                }
+                rows++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new TraceDemand(Arrays.copyOf(times, rows), Arrays.copyOf(coordinates, 4 * rows),
+                               Arrays.copyOf(groups, rows), loop);
+    }
+    
+    public int size() {
+        return groupSizes.length;
+    }
+    
+    @Override
+    public boolean next(RandomGenerator random, DemandSample sample) {
+        int rows = groupSizes.length;
+        if (cursor == rows && (!loop || rows == 0)) {
+            return false;
+        }
+        int row = cursor % rows;
+        sample.arrivalGapNanos = row == 0 ? 0 : (timesMillis[row] - timesMillis[row - 1]) * 1_000_000L;
+        sample.pickupX = coordinates[4 * row];
+        sample.pickupY = coordinates[4 * row + 1];
+        sample.destinationX = coordinates[4 * row + 2];
+        sample.destinationY = coordinates[4 * row + 3];
+        sample.groupSize = groupSizes[row];
+        cursor = row + 1;
+        return true;
+    }
+}
+
+// =============================================================================
+// FLEET INDEXING
+// =============================================================================
+
+/**
+ * Receives vehicle movement and status changes so fleet indexes stay current
+ */
+interface VehicleListener {
+    void onLocationChanged(Vehicle vehicle, Location oldLocation);
+    void onStatusChanged(Vehicle vehicle, VehicleStatus oldStatus, VehicleStatus newStatus);
+    
+    /**
+     * Called after a change to AVAILABLE has been indexed, with no vehicle lock held
+     */
+    default void onBecameAvailable(Vehicle vehicle) {
+    }
+}
+
+/**
+ * Uniform grid over vehicle locations for nearest-vehicle lookups.
+ * Searches expand ring by ring from the target cell and stop as soon as
+ * no unvisited cell can hold a closer vehicle. Cells are concurrent sets,
+ * so updates in different regions never contend; searches are weakly
+ * consistent and callers must confirm a candidate by claiming it.
+ */
+class FleetGrid {
+    static final int DEFAULT_CELL_SIZE = 10;
+    
+    private final int cellSize;
+    private final boolean availableOnly; // Skip indexed vehicles that are no longer available
+    private final Map<Long, Set<Vehicle>> cells;
+    private final AtomicInteger size;
+    // Bounding box (in cells) of every cell ever occupied; limits how far a search expands
+    private final AtomicInteger minCellX = new AtomicInteger(Integer.MAX_VALUE);
+    private final AtomicInteger minCellY = new AtomicInteger(Integer.MAX_VALUE);
+    private final AtomicInteger maxCellX = new AtomicInteger(Integer.MIN_VALUE);
+    private final AtomicInteger maxCellY = new AtomicInteger(Integer.MIN_VALUE);
+    
+    public FleetGrid(int cellSize) {
+        this(cellSize, true);
+    }
+    
+    /**
+     * Grid whose searches return indexed vehicles whatever their status if availableOnly is false
+     */
+    public FleetGrid(int cellSize, boolean availableOnly) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.availableOnly = availableOnly;
+        this.cells = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+    }
+    
+    public void insert(Vehicle vehicle, Location location) {
+        int cellX = cellOf(location.getX());
+        int cellY = cellOf(location.getY());
+        minCellX.accumulateAndGet(cellX, Math::min);
+        minCellY.accumulateAndGet(cellY, Math::min);
+        maxCellX.accumulateAndGet(cellX, Math::max);
+        maxCellY.accumulateAndGet(cellY, Math::max);
+        if (cells.computeIfAbsent(key(cellX, cellY), k -> ConcurrentHashMap.newKeySet()).add(vehicle)) {
+            size.incrementAndGet();
+        }
+    }
+    
+    public void remove(Vehicle vehicle, Location location) {
+        Set<Vehicle> cell = cells.get(key(cellOf(location.getX()), cellOf(location.getY())));
+        if (cell != null && cell.remove(vehicle)) {
+            size.decrementAndGet();
+        }
+    }
+    
+    public void move(Vehicle vehicle, Location from, Location to) {
+        if (from != null && cellOf(from.getX()) == cellOf(to.getX()) && cellOf(from.getY()) == cellOf(to.getY())) {
+            return;
+        }
+        if (from != null) {
+            remove(vehicle, from);
+        }
+        insert(vehicle, to);
+    }
+    
+    public int size() {
+        return size.get();
+    }
+    
+    /**
+     * Returns the available indexed vehicle closest to the target, or null if there is none
+     */
+    public Vehicle nearest(Location target) {
+        if (size.get() == 0) {
+            return null;
+        }
+        int centerX = cellOf(target.getX());
+        int centerY = cellOf(target.getY());
+        int maxRing = Math.max(Math.max(centerX - minCellX.get(), maxCellX.get() - centerX),
+                               Math.max(centerY - minCellY.get(), maxCellY.get() - centerY));
+        
+        Vehicle best = null;
+        long bestDistance = Long.MAX_VALUE; // Squared
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Every cell on this ring is at least (ring - 1) cells away from the target
+            if (best != null && ringReachSquared(ring) > bestDistance) {
+                break;
+            }
+            for (int dx = -ring; dx <= ring; dx++) {
+                int dyStep = (dx == -ring || dx == ring) ? 1 : 2 * ring;
+                for (int dy = -ring; dy <= ring; dy += dyStep) {
+                    Set<Vehicle> cell = cells.get(key(centerX + dx, centerY + dy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (Vehicle vehicle : cell) {
+                        if (availableOnly && !vehicle.isAvailable()) {
+                            continue; // Claimed, not yet removed
+                        }
+                        long distance = vehicle.getCurrentLocation().distanceSquaredTo(target);
+                        // Equal distances go to the lower id, so seeded runs are reproducible
+                        if (distance < bestDistance
+                                || (distance == bestDistance && vehicle.getVehicleId() < best.getVehicleId())) {
+                            best = vehicle;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Adds up to k indexed vehicles closest to the target to the given list,
+     * nearest first; only available ones unless the grid indexes all statuses
+     */
+    public void nearest(Location target, int k, List<Vehicle> out) {
+        if (size.get() == 0 || k <= 0) {
+            return;
+        }
+        int centerX = cellOf(target.getX());
+        int centerY = cellOf(target.getY());
+        int maxRing = Math.max(Math.max(centerX - minCellX.get(), maxCellX.get() - centerX),
+                               Math.max(centerY - minCellY.get(), maxCellY.get() - centerY));
+        
+        // Max-heap on distance holding the best k seen so far
+        PriorityQueue<Vehicle> best = new PriorityQueue<>(k + 1,
+            Comparator.comparingLong((Vehicle v) -> v.getCurrentLocation().distanceSquaredTo(target))
+                      .thenComparingInt(Vehicle::getVehicleId).reversed());
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (best.size() == k
+                    && ringReachSquared(ring) > best.peek().getCurrentLocation().distanceSquaredTo(target)) {
+                break;
+            }
+            for (int dx = -ring; dx <= ring; dx++) {
+                int dyStep = (dx == -ring || dx == ring) ? 1 : 2 * ring;
+                for (int dy = -ring; dy <= ring; dy += dyStep) {
+                    Set<Vehicle> cell = cells.get(key(centerX + dx, centerY + dy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (Vehicle vehicle : cell) {
+                        if (!availableOnly || vehicle.isAvailable()) {
+                            best.add(vehicle);
+                            if (best.size() > k) {
+                                best.poll();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        int start = out.size();
+        while (!best.isEmpty()) {
+            out.add(best.poll());
+        }
+        Collections.reverse(out.subList(start, out.size()));
+    }
+    
+    private int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+    
+    // Squared lower bound on the distance from the target to any cell on the ring
+    private long ringReachSquared(int ring) {
+        long reach = (long) Math.max(ring - 1, 0) * cellSize;
+        return reach * reach;
+    }
+    
+    // Packs the cell coordinates and scrambles them with an odd multiplier, a
+    // bijection, because Long.hashCode of the packed value is cellX ^ cellY:
+    // cells along each diagonal would collide and the map would fall back to
+    // slow tree bins
+    private static long key(int cellX, int cellY) {
+        return (((long) cellX << 32) | (cellY & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+}
+
+/**
+ * Dense table of objects keyed by their sequential id, so a lookup is a
+ * single array read. The backing array starts at the lowest id stored and
+ * is replaced wholesale when it grows, keeping reads lock-free.
+ */
+class IdTable<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    
+    /** Immutable pairing of base id and slots, published through one volatile write */
+    private static final class Slots<T> {
+        final int baseId;
+        final AtomicReferenceArray<T> values;
+        
+        Slots(int baseId, AtomicReferenceArray<T> values) {
+            this.baseId = baseId;
+            this.values = values;
+        }
+    }
+    
+    private volatile Slots<T> slots;
+    
+    public T get(int id) {
+        Slots<T> current = slots;
+        if (current == null) {
+            return null;
+        }
+        int index = id - current.baseId;
+        if (index < 0 || index >= current.values.length()) {
+            return null;
+        }
+        return current.values.get(index);
+    }
+    
+    public synchronized void put(int id, T value) {
+        Slots<T> current = ensureCovers(id);
+        current.values.set(id - current.baseId, value);
+    }
+    
+    private Slots<T> ensureCovers(int id) {
+        Slots<T> current = slots;
+        if (current == null) {
+            current = new Slots<>(id, new AtomicReferenceArray<>(INITIAL_CAPACITY));
+            slots = current;
+            return current;
+        }
+        int length = current.values.length();
+        if (id >= current.baseId && id < current.baseId + length) {
+            return current;
+        }
+        int newBase = Math.min(current.baseId, id);
+        int required = Math.max(current.baseId + length, id + 1) - newBase;
+        int newLength = Math.max(length * 2, required);
+        AtomicReferenceArray<T> values = new AtomicReferenceArray<>(newLength);
+        int shift = current.baseId - newBase;
+        for (int i = 0; i < length; i++) {
+            values.set(i + shift, current.values.get(i));
+        }
+        current = new Slots<>(newBase, values);
+        slots = current;
+        return current;
+    }
+}
+
+/**
+ * Availability of a fleet kept incrementally as one atomic bitset and
+ * counter per VehicleType, indexed by the slot each vehicle is given on
+ * add, so counts and availability filters read primitive words instead of
+ * walking Vehicle objects. The Vehicle objects stay authoritative; a bit
+ * may lag a concurrent update briefly, so callers confirm results by
+ * claiming. Nearest-vehicle searches go through the FleetGrid indexes.
+ */
+class FleetStore {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final VehicleType[] TYPES = VehicleType.values();
+    
+    // Slot updates touch disjoint elements and share the read lock; only growth is exclusive
+    private final StampedLock lock = new StampedLock();
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private Vehicle[] vehicles = new Vehicle[INITIAL_CAPACITY];
+    private int size;
+    // Bit per slot, one set per VehicleType ordinal
+    private final AtomicLongArray[] availableBits = new AtomicLongArray[TYPES.length];
+    private final AtomicInteger[] availableCounts = new AtomicInteger[TYPES.length];
+    
+    public FleetStore() {
+        for (int t = 0; t < TYPES.length; t++) {
+            availableBits[t] = new AtomicLongArray(wordsFor(INITIAL_CAPACITY));
+            availableCounts[t] = new AtomicInteger();
+        }
+    }
+    
+    public void add(Vehicle vehicle) {
+        long stamp = lock.writeLock();
+        try {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                vehicles = Arrays.copyOf(vehicles, capacity);
+                for (int t = 0; t < TYPES.length; t++) {
+                    AtomicLongArray grown = new AtomicLongArray(wordsFor(capacity));
+                    for (int w = 0; w < availableBits[t].length(); w++) {
+                        grown.set(w, availableBits[t].get(w));
+                    }
+                    availableBits[t] = grown;
+                }
+            }
+            int slot = size++;
+            vehicle.fleetSlot = slot;
+            types[slot] = (byte) vehicle.getType().ordinal();
+            vehicles[slot] = vehicle;
+            if (vehicle.isAvailable()) {
+                markAvailable(types[slot], slot);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Records a status change. Callers serialise changes per vehicle (see
+     * Vehicle.setStatus); the availability bit follows the new status alone,
+     * so it never disagrees with the vehicle whatever the previous status was.
+     */
+    public void updateStatus(Vehicle vehicle, VehicleStatus newStatus) {
+        long stamp = lock.readLock();
+        try {
+            int slot = vehicle.fleetSlot;
+            if (newStatus == VehicleStatus.AVAILABLE) {
+                markAvailable(types[slot], slot);
+            } else {
+                markUnavailable(types[slot], slot);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    public int availableCount() {
+        int count = 0;
+        for (AtomicInteger typeCount : availableCounts) {
+            count += typeCount.get();
+        }
+        return count;
+    }
+    
+    public int availableCount(VehicleType type) {
+        return availableCounts[type.ordinal()].get();
+    }
+    
+    /**
+     * Returns true if any available vehicle has room for the group
+     */
+    public boolean hasAvailable(int groupSize) {
+        for (VehicleType type : TYPES) {
+            if (type.getCapacity() >= groupSize && availableCounts[type.ordinal()].get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the available vehicles in fleet order, walking only set bits
+     */
+    public List<Vehicle> availableVehicles() {
+        long stamp = lock.readLock();
+        try {
+            List<Vehicle> available = new ArrayList<>(availableCount());
+            for (int w = 0; w < wordsFor(size); w++) {
+                long word = 0;
+                for (AtomicLongArray bits : availableBits) {
+                    word |= bits.get(w);
+                }
+                while (word != 0) {
+                    available.add(vehicles[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                    word &= word - 1;
+                }
+            }
+            return available;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    private void markAvailable(int type, int slot) {
+        AtomicLongArray bits = availableBits[type];
+        long mask = 1L << slot;
+        long word;
+        do {
+            word = bits.get(slot >>> 6);
+            if ((word & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(slot >>> 6, word, word | mask));
+        availableCounts[type].incrementAndGet();
+    }
+    
+    private void markUnavailable(int type, int slot) {
+        AtomicLongArray bits = availableBits[type];
+        long mask = 1L << slot;
+        long word;
+        do {
+            word = bits.get(slot >>> 6);
+            if ((word & mask) == 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(slot >>> 6, word, word & ~mask));
+        availableCounts[type].decrementAndGet();
+    }
+    
+    private static int wordsFor(int slots) {
+        return (slots + 63) >>> 6;
+    }
+}
+
+// =============================================================================
+// BATCH DISPATCH
+// =============================================================================
+
+/**
+ * A pickup request waiting to be scheduled
+ */
+class PickupRequest {
+    private final Passenger passenger;
+    private final Location pickupLocation;
+    private final Location destinationLocation;
+    
+    public PickupRequest(Passenger passenger, Location pickupLocation, Location destinationLocation) {
+        this.passenger = passenger;
+        this.pickupLocation = pickupLocation;
+        this.destinationLocation = destinationLocation;
+    }
+    
+    // Getters
+    public Passenger getPassenger() { return passenger; }
+    public Location getPickupLocation() { return pickupLocation; }
+    public Location getDestinationLocation() { return destinationLocation; }
+    
+    @Override
+    public String toString() {
+        return String.format("PickupRequest{passenger=%s, pickup=%s, destination=%s}",
+                           passenger.getName(), pickupLocation, destinationLocation);
+    }
+}
+
+/**
+ * Solves the request-to-vehicle assignment for a batch with the Hungarian
+ * algorithm. The cost of a pairing is the pickup distance plus a penalty
+ * for every seat left empty, so shuttles are kept for the groups that need them.
+ */
+final class AssignmentSolver {
+    /** Nearest vehicles of each type considered per request */
+    static final int CANDIDATES_PER_TYPE = 8;
+    /** Cost of one idle seat, in distance units */
+    static final double SEAT_WASTE_PENALTY = 5.0;
+    /** Cost of a pairing that cannot carry the group; any solution using it is discarded */
+    private static final double INFEASIBLE = 1e9;
+    
+    private AssignmentSolver() {
+    }
+    
+    /**
+     * Returns, for each request, the index of its assigned candidate or -1 if none fits
+     */
+    static int[] assign(List<PickupRequest> requests, List<Vehicle> candidates) {
+        int rows = requests.size();
+        int columns = Math.max(candidates.size(), rows); // Pad with dummy columns so every row is matched
+        double[][] cost = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            PickupRequest request = requests.get(i);
+            int groupSize = request.getPassenger().getGroupSize();
+            Arrays.fill(cost[i], INFEASIBLE);
+            for (int j = 0; j < candidates.size(); j++) {
+                Vehicle vehicle = candidates.get(j);
+                if (vehicle.canAccommodate(groupSize)) {
+                    cost[i][j] = vehicle.getCurrentLocation().distanceTo(request.getPickupLocation())
+                               + SEAT_WASTE_PENALTY * (vehicle.getType().getCapacity() - groupSize);
+                }
+            }
+        }
+        
+        int[] assignment = solve(cost, rows, columns);
+        for (int i = 0; i < rows; i++) {
+            if (assignment[i] >= 0 && cost[i][assignment[i]] >= INFEASIBLE) {
+                assignment[i] = -1;
+            }
+        }
+        return assignment;
+    }
+    
+    /**
+     * Minimum-cost matching of every row to a distinct column (rows <= columns),
+     * using row/column potentials in O(rows^2 * columns)
+     */
+    private static int[] solve(double[][] cost, int rows, int columns) {
+        double[] rowPotential = new double[rows + 1];
+        double[] columnPotential = new double[columns + 1];
+        int[] rowOfColumn = new int[columns + 1]; // 1-based row matched to each column, 0 if free
+        int[] previousColumn = new int[columns + 1];
+        double[] minSlack = new double[columns + 1];
+        boolean[] visited = new boolean[columns + 1];
+        
+        for (int row = 1; row <= rows; row++) {
+            rowOfColumn[0] = row;
+            int column = 0;
+            Arrays.fill(minSlack, Double.MAX_VALUE);
+            Arrays.fill(visited, false);
+            do {
+                visited[column] = true;
+                int currentRow = rowOfColumn[column];
+                double delta = Double.MAX_VALUE;
+                int nextColumn = 0;
+                for (int j = 1; j <= columns; j++) {
+                    if (!visited[j]) {
+                        double slack = cost[currentRow - 1][j - 1] - rowPotential[currentRow] - columnPotential[j];
+                        if (slack < minSlack[j]) {
+                            minSlack[j] = slack;
+                            previousColumn[j] = column;
+                        }
+                        if (minSlack[j] < delta) {
+                            delta = minSlack[j];
+                            nextColumn = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= columns; j++) {
+                    if (visited[j]) {
+                        rowPotential[rowOfColumn[j]] += delta;
+                        columnPotential[j] -= delta;
+                    } else {
+                        minSlack[j] -= delta;
+                    }
+                }
+                column = nextColumn;
+            } while (rowOfColumn[column] != 0);
+            
+            // Flip the augmenting path
+            do {
+                int previous = previousColumn[column];
+                rowOfColumn[column] = rowOfColumn[previous];
+                column = previous;
+            } while (column != 0);
+        }
+        
+        int[] assignment = new int[rows];
+        Arrays.fill(assignment, -1);
+        for (int j = 1; j <= columns; j++) {
+            if (rowOfColumn[j] != 0) {
+                assignment[rowOfColumn[j] - 1] = j - 1;
+            }
+        }
+        return assignment;
+    }
+}
+
+/**
+ * Collects pickup requests over a short window and hands them to
+ * Company.scheduleBatch once the window has elapsed or the batch is full.
+ * The window opens with its first request and a timer closes it, so a
+ * lone request in a quiet period waits at most windowMillis. Each request
+ * gets a future that completes with its trip when its batch is scheduled.
+ */
+class DispatchWindow implements AutoCloseable {
+    private final Company company;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final List<PickupRequest> pending;
+    private final List<CompletableFuture<Trip>> futures;
+    private final ScheduledExecutorService timer;
+    private long windowNumber; // Counts flushes, so a timer left over from a closed window does nothing
+    private boolean closed;
+    
+    public DispatchWindow(Company company, long windowMillis, int maxBatchSize) {
+        if (windowMillis <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Window and batch size must be positive");
+        }
+        this.company = company;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.pending = new ArrayList<>();
+        this.futures = new ArrayList<>();
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "dispatch-window");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Queues a request; the future completes when its batch is scheduled
+     */
+    public synchronized CompletableFuture<Trip> submit(PickupRequest request) {
+        CompletableFuture<Trip> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new RejectedExecutionException("Dispatch window is closed"));
+            return future;
+        }
+        if (pending.isEmpty()) {
+            long opened = windowNumber;
+            timer.schedule(() -> flushWindow(opened), windowNanos, TimeUnit.NANOSECONDS);
+        }
+        pending.add(request);
+        futures.add(future);
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        }
+        return future;
+    }
+    
+    /**
+     * Schedules whatever is pending now and returns its trips, in request order
+     */
+    public synchronized List<Trip> flush() {
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        windowNumber++;
+        List<PickupRequest> batch = new ArrayList<>(pending);
+        List<CompletableFuture<Trip>> batchFutures = new ArrayList<>(futures);
+        pending.clear();
+        futures.clear();
+        List<Trip> trips;
+        try {
+            trips = company.scheduleBatch(batch);
+        } catch (RuntimeException | Error e) {
+            for (CompletableFuture<Trip> future : batchFutures) {
+                future.completeExceptionally(e);
+            }
+            throw e;
+        }
+        for (int i = 0; i < trips.size(); i++) {
+            batchFutures.get(i).complete(trips.get(i));
+        }
+        return trips;
+    }
+    
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Schedules what is pending and stops the timer
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            flush();
+        }
+        timer.shutdownNow();
+    }
+    
+    private synchronized void flushWindow(long opened) {
+        if (windowNumber == opened) {
+            try {
+                flush();
+            } catch (RuntimeException | Error e) {
+                // Already passed to the batch's futures; the timer thread carries on
+            }
+        }
+    }
+}
+
+// =============================================================================
+// PENDING REQUESTS
+// =============================================================================
+
+/**
+ * Requests waiting for a vehicle to free up, in one FIFO per group size.
+ * Requests join in arrival order, so each queue's head is its longest
+ * waiting request, and expiring deadlines only looks at queue heads. For
+ * matching, pickups are also indexed per group size in square cells of
+ * MAX_HANDOVER_DISTANCE (keyed like FleetGrid's), so a freed vehicle
+ * checks only the 3x3 cells around it and takes the nearest request it
+ * can seat within reach, wherever that request sits in its queue. Only
+ * when none is in reach does it take the longest waiting request it can
+ * seat: it would otherwise idle while that request ages towards its
+ * deadline. Requests served from a cell stay in their FIFO until they
+ * reach its head and are skipped there, so no removal scans a queue.
+ * Not thread-safe; Company guards it with its own lock.
+ */
+class PendingRequests {
+    /** Farthest pickup, in grid units, a freed vehicle prefers over the longest waiting request */
+    static final int MAX_HANDOVER_DISTANCE = 20;
+    static final int MAX_GROUP_SIZE;
+    static {
+        int largest = 0;
+        for (VehicleType type : VehicleType.values()) {
+            largest = Math.max(largest, type.getCapacity());
+        }
+        MAX_GROUP_SIZE = largest; // Larger groups can never be seated, so they are not queued
+    }
+    
+    private final List<ArrayDeque<Trip>> byGroupSize = new ArrayList<>(MAX_GROUP_SIZE + 1);
+    private final List<Map<Long, List<Trip>>> cellsByGroupSize = new ArrayList<>(MAX_GROUP_SIZE + 1);
+    private final Set<Trip> servedFromCell = new HashSet<>(); // Still in a FIFO, to be skipped
+    private int size;
+    
+    PendingRequests() {
+        for (int groupSize = 0; groupSize <= MAX_GROUP_SIZE; groupSize++) {
+            byGroupSize.add(new ArrayDeque<>());
+            cellsByGroupSize.add(new HashMap<>());
+        }
+    }
+    
+    public void add(Trip trip) {
+        queueFor(trip).addLast(trip);
+        cellFor(trip).add(trip);
+        size++;
+    }
+    
+    /**
+     * Puts a trip taken by pollFor back in its place in its queue
+     */
+    public void addFirst(Trip trip) {
+        if (!servedFromCell.remove(trip)) {
+            queueFor(trip).addFirst(trip); // Taken from the head, so it goes back there
+        }
+        cellFor(trip).add(trip);
+        size++;
+    }
+    
+    /**
+     * Removes the request nearest to a vehicle at the given location that
+     * it can seat within MAX_HANDOVER_DISTANCE, or else the longest waiting
+     * one it can seat; returns null if it can seat none. On equal
+     * distances the longer wait, then the larger group, goes first.
+     */
+    public Trip pollFor(int capacity, Location vehicleLocation) {
+        int largest = Math.min(capacity, MAX_GROUP_SIZE);
+        int cellX = Math.floorDiv(vehicleLocation.getX(), MAX_HANDOVER_DISTANCE);
+        int cellY = Math.floorDiv(vehicleLocation.getY(), MAX_HANDOVER_DISTANCE);
+        Trip best = null;
+        List<Trip> bestCell = null;
+        int bestIndex = -1;
+        long bestDistance = (long) MAX_HANDOVER_DISTANCE * MAX_HANDOVER_DISTANCE; // Squared
+        for (int groupSize = largest; groupSize >= 0; groupSize--) {
+            Map<Long, List<Trip>> cells = cellsByGroupSize.get(groupSize);
+            if (cells.isEmpty()) {
+                continue;
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    List<Trip> cell = cells.get(key(cellX + dx, cellY + dy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size(); i++) {
+                        Trip trip = cell.get(i);
+                        long distance = trip.getPickupLocation().distanceSquaredTo(vehicleLocation);
+                        if (distance < bestDistance || (distance == bestDistance
+                                && (best == null || trip.getRequestTimeNanos() < best.getRequestTimeNanos()))) {
+                            best = trip;
+                            bestCell = cell;
+                            bestIndex = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        if (best != null) {
+            removeFromCell(best, bestCell, bestIndex);
+            if (queueFor(best).peekFirst() == best) {
+                queueFor(best).pollFirst();
+            } else {
+                servedFromCell.add(best);
+            }
+            size--;
+            return best;
+        }
+        
+        // Nothing in reach: the longest waiting request it can seat
+        ArrayDeque<Trip> oldest = null;
+        for (int groupSize = largest; groupSize >= 0; groupSize--) {
+            Trip head = head(groupSize);
+            if (head != null && (oldest == null || head.getRequestTimeNanos() < oldest.peekFirst().getRequestTimeNanos())) {
+                oldest = byGroupSize.get(groupSize);
+            }
+        }
+        return oldest != null ? pollHead(oldest) : null;
+    }
+    
+    /**
+     * Removes one request made at or before the cutoff, or returns null if none is left
+     */
+    public Trip pollExpired(long cutoffNanos) {
+        for (int groupSize = 0; groupSize <= MAX_GROUP_SIZE; groupSize++) {
+            Trip head = head(groupSize);
+            if (head != null && head.getRequestTimeNanos() <= cutoffNanos) {
+                return pollHead(byGroupSize.get(groupSize));
+            }
+        }
+        return null;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    // Oldest request of the group still waiting, dropping those already served from a cell
+    private Trip head(int groupSize) {
+        ArrayDeque<Trip> queue = byGroupSize.get(groupSize);
+        Trip head;
+        while ((head = queue.peekFirst()) != null && servedFromCell.remove(head)) {
+            queue.pollFirst();
+        }
+        return head;
+    }
+    
+    private Trip pollHead(ArrayDeque<Trip> queue) {
+        Trip trip = queue.pollFirst();
+        List<Trip> cell = cellFor(trip);
+        removeFromCell(trip, cell, cell.indexOf(trip));
+        size--;
+        return trip;
+    }
+    
+    private ArrayDeque<Trip> queueFor(Trip trip) {
+        return byGroupSize.get(trip.getPassenger().getGroupSize());
+    }
+    
+    private List<Trip> cellFor(Trip trip) {
+        Location pickup = trip.getPickupLocation();
+        long key = key(Math.floorDiv(pickup.getX(), MAX_HANDOVER_DISTANCE), Math.floorDiv(pickup.getY(), MAX_HANDOVER_DISTANCE));
+        return cellsByGroupSize.get(trip.getPassenger().getGroupSize()).computeIfAbsent(key, k -> new ArrayList<>());
+    }
+    
+    // Order within a cell does not matter, so the last entry fills the gap
+    private void removeFromCell(Trip trip, List<Trip> cell, int index) {
+        Trip last = cell.remove(cell.size() - 1);
+        if (index < cell.size()) {
+            cell.set(index, last);
+        }
+        if (cell.isEmpty()) {
+            Location pickup = trip.getPickupLocation();
+            cellsByGroupSize.get(trip.getPassenger().getGroupSize())
+                    .remove(key(Math.floorDiv(pickup.getX(), MAX_HANDOVER_DISTANCE), Math.floorDiv(pickup.getY(), MAX_HANDOVER_DISTANCE)));
+        }
+    }
+    
+    private static long key(int cellX, int cellY) {
+        return (((long) cellX << 32) | (cellY & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+}
+
+// =============================================================================
+// RIDE POOLING
+// =============================================================================
+
+/**
+ * One pickup or drop-off on a vehicle's route
+ */
+class Stop {
+    private final Trip trip;
+    private final boolean pickup;
+    
+    public Stop(Trip trip, boolean pickup) {
+        this.trip = trip;
+        this.pickup = pickup;
+    }
+    
+    // Getters
+    public Trip getTrip() { return trip; }
+    public boolean isPickup() { return pickup; }
+    
+    public Location getLocation() {
+        return pickup ? trip.getPickupLocation() : trip.getDestinationLocation();
+    }
+    
+    @Override
+    public String toString() {
+        return (pickup ? "Pickup" : "Drop-off") + "{trip=" + trip.getTripId() + ", at=" + getLocation().getAddress() + "}";
+    }
+}
+
+/**
+ * Pickups and drop-offs still to serve by a vehicle pooling rides, in
+ * order. The first stop is where the vehicle is already driving and is
+ * never displaced. A new trip goes in by cheapest insertion: every pair
+ * of positions for its pickup and drop-off is tried, seats in use must
+ * stay within capacity between them, and neither the route nor the new
+ * rider's journey may grow by more than MAX_DETOUR. The detour bound keeps
+ * routes to a handful of stops, so the quadratic search stays cheap.
+ * Not thread-safe; Company guards each route with its vehicle's lock.
+ */
+class RoutePlan {
+    /** Most distance, in grid units, one insertion may add: 10 minutes at the simulator's default speed */
+    static final double MAX_DETOUR = 25.0;
+    
+    private final List<Stop> stops = new ArrayList<>();
+    private int aboard; // Passengers in the vehicle now
+    private int[] loadAfter = new int[8]; // Scratch: passengers aboard after each stop
+    private int pickupIndex; // Position of the last insertion found
+    private int dropoffIndex;
+    
+    public RoutePlan(Trip first) {
+        stops.add(new Stop(first, true));
+        stops.add(new Stop(first, false));
+    }
+    
+    public Stop peek() {
+        return stops.isEmpty() ? null : stops.get(0);
+    }
+    
+    public boolean isEmpty() {
+        return stops.isEmpty();
+    }
+    
+    public int getAboard() {
+        return aboard;
+    }
+    
+    public List<Stop> getStops() {
+        return Collections.unmodifiableList(stops);
+    }
+    
+    /**
+     * Removes the next stop once it has been served
+     */
+    public Stop completeNextStop() {
+        Stop stop = stops.remove(0);
+        int groupSize = stop.getTrip().getPassenger().getGroupSize();
+        aboard += stop.isPickup() ? groupSize : -groupSize;
+        return stop;
+    }
+    
+    /**
+     * Route distance the cheapest feasible insertion of the trip adds, or
+     * positive infinity if it cannot be fitted in
+     */
+    public double insertionCost(Trip trip, int capacity) {
+        return findInsertion(trip, capacity);
+    }
+    
+    /**
+     * Inserts the trip at its cheapest feasible position; false if it does not fit
+     */
+    public boolean insert(Trip trip, int capacity) {
+        if (findInsertion(trip, capacity) == Double.POSITIVE_INFINITY) {
+            return false;
+        }
+        stops.add(dropoffIndex, new Stop(trip, false));
+        stops.add(pickupIndex, new Stop(trip, true));
+        return true;
+    }
+    
+    // New order: stops[0, i), pickup, stops[i, j), drop-off, stops[j, n) with 1 <= i <= j <= n
+    private double findInsertion(Trip trip, int capacity) {
+        int n = stops.size();
+        int groupSize = trip.getPassenger().getGroupSize();
+        Location pickup = trip.getPickupLocation();
+        Location dropoff = trip.getDestinationLocation();
+        double direct = pickup.distanceTo(dropoff);
+        if (n == 0 || groupSize > capacity) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (loadAfter.length < n) {
+            loadAfter = new int[Math.max(n, 2 * loadAfter.length)];
+        }
+        int load = aboard;
+        for (int k = 0; k < n; k++) {
+            Stop stop = stops.get(k);
+            int size = stop.getTrip().getPassenger().getGroupSize();
+            load += stop.isPickup() ? size : -size;
+            loadAfter[k] = load;
+        }
+        
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 1; i <= n; i++) {
+            if (loadAfter[i - 1] + groupSize > capacity) {
+                continue; // No seats on the leg where the rider would board
+            }
+            Location before = stops.get(i - 1).getLocation();
+            Location after = i < n ? stops.get(i).getLocation() : null;
+            double leg = after != null ? before.distanceTo(after) : 0;
+            
+            // Drop-off straight after the pickup
+            double adjacent = before.distanceTo(pickup) + direct + (after != null ? dropoff.distanceTo(after) : 0) - leg;
+            if (adjacent <= MAX_DETOUR && adjacent < best) {
+                best = adjacent;
+                pickupIndex = i;
+                dropoffIndex = i;
+            }
+            
+            // Drop-off after one or more existing stops; detours never shrink, so stop early
+            double pickupDetour = before.distanceTo(pickup) + (after != null ? pickup.distanceTo(after) : 0) - leg;
+            if (after == null || pickupDetour > MAX_DETOUR) {
+                continue;
+            }
+            double ride = pickup.distanceTo(after); // Rider's distance from the pickup to stop j - 1
+            for (int j = i + 1; j <= n; j++) {
+                if (loadAfter[j - 1] + groupSize > capacity) {
+                    break; // The rider would still be aboard after stop j - 1, which is full
+                }
+                Location previous = stops.get(j - 1).getLocation();
+                if (j > i + 1) {
+                    ride += stops.get(j - 2).getLocation().distanceTo(previous);
+                }
+                Location next = j < n ? stops.get(j).getLocation() : null;
+                double dropoffDetour = previous.distanceTo(dropoff)
+                                     + (next != null ? dropoff.distanceTo(next) - previous.distanceTo(next) : 0);
+                double added = pickupDetour + dropoffDetour;
+                if (added <= MAX_DETOUR && ride + previous.distanceTo(dropoff) <= direct + MAX_DETOUR && added < best) {
+                    best = added;
+                    pickupIndex = i;
+                    dropoffIndex = j;
+                }
+            }
+        }
+        return best;
+    }
+}
+
+// =============================================================================
+// REQUEST INGESTION
+// =============================================================================
+
+/**
+ * Front end for pickup requests arriving from many clients at once.
+ * Each request is handed to its own virtual thread, which puts it into a
+ * bounded queue; a single dispatcher thread drains the queue and schedules
+ * requests one after another, so Company only ever sees one writer. submit
+ * never blocks the client: when the queue is full, the request's virtual
+ * thread parks on it, which costs a few hundred bytes rather than a
+ * platform thread. A semaphore caps how many requests may be parked or
+ * queueing at once, and a submit beyond the cap is rejected at once.
+ * Requests that reach the dispatcher more than maxWait after submission
+ * are shed with RejectedExecutionException instead of being served late.
+ * A completed future holds the scheduled trip, which has no assigned
+ * vehicle if the request became a lost fare.
+ */
+class RequestIngestor implements AutoCloseable {
+    static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    static final int DEFAULT_MAX_IN_FLIGHT = 100_000;
+    static final long DEFAULT_MAX_WAIT_MILLIS = 1000;
+    private static final int DRAIN_LIMIT = 256;
+    private static final Ingestion SHUTDOWN = new Ingestion(null, null, 0);
+    
+    private final Company company;
+    private final BlockingQueue<Ingestion> queue;
+    private final int maxInFlight;
+    private final Semaphore inFlight; // One permit per request between submit and the queue
+    private final long maxWaitNanos;
+    private final ThreadFactory submitters = Thread.ofVirtual().name("request-submitter-", 0).factory();
+    private final Thread dispatcher;
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean open = true;
+    
+    public RequestIngestor(Company company) {
+        this(company, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_WAIT_MILLIS);
+    }
+    
+    public RequestIngestor(Company company, int queueCapacity, long maxWaitMillis) {
+        this(company, queueCapacity, DEFAULT_MAX_IN_FLIGHT, maxWaitMillis);
+    }
+    
+    public RequestIngestor(Company company, int queueCapacity, int maxInFlight, long maxWaitMillis) {
+        if (queueCapacity <= 0 || maxInFlight <= 0 || maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("Queue capacity, in-flight limit and wait must be positive");
+        }
+        this.company = company;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.dispatcher = new Thread(this::dispatch, "request-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+    
+    public CompletableFuture<Trip> submit(Passenger passenger, Location pickupLocation, Location destinationLocation) {
+        return submit(new PickupRequest(passenger, pickupLocation, destinationLocation));
+    }
+    
+    /**
+     * Hands the request to a virtual thread that queues it, and returns
+     * without waiting for queue space
+     */
+    public CompletableFuture<Trip> submit(PickupRequest request) {
+        CompletableFuture<Trip> future = new CompletableFuture<>();
+        if (!inFlight.tryAcquire()) {
+            reject(future, "More than " + maxInFlight + " requests waiting for the queue");
+            return future;
+        }
+        if (!open) {
+            // Checked while holding a permit: close() takes every permit after
+            // clearing open, so a request that sees open here is queued before
+            // the shutdown marker
+            inFlight.release();
+            reject(future, "Ingestor is closed");
+            return future;
+        }
+        Ingestion ingestion = new Ingestion(request, future, System.nanoTime());
+        submitters.newThread(() -> enqueue(ingestion)).start();
+        return future;
+    }
+    
+    private void enqueue(Ingestion ingestion) {
+        try {
+            // Untimed: a timed park registers a timer per thread, so the
+            // deadline is checked when the dispatcher takes the request instead
+            queue.put(ingestion);
+        } catch (InterruptedException e) {
+            reject(ingestion.future, "Interrupted while queueing");
+        } finally {
+            inFlight.release();
+        }
+    }
+    
+    public int getQueuedCount() {
+        return queue.size();
+    }
+    
+    /**
+     * Requests submitted but not yet in the queue, i.e. on their way or
+     * parked waiting for space
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Stops accepting requests and returns once every request submitted
+     * before it has been scheduled or shed; requests that race with it are
+     * rejected
+     */
+    @Override
+    public void close() {
+        open = false;
+        inFlight.acquireUninterruptibly(maxInFlight); // Waits for submitters still queueing
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(SHUTDOWN); // Queued after every accepted request
+                dispatcher.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        Ingestion late;
+        while ((late = queue.poll()) != null) {
+            if (late != SHUTDOWN) {
+                reject(late.future, "Ingestor is closed"); // Queued after the shutdown marker
+            }
+        }
+        inFlight.release(maxInFlight);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void reject(CompletableFuture<Trip> future, String reason) {
+        rejected.increment();
+        future.completeExceptionally(new RejectedExecutionException(reason));
+    }
+    
+    private void dispatch() {
+        List<Ingestion> batch = new ArrayList<>(DRAIN_LIMIT);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only close() stops the dispatcher
+            }
+            queue.drainTo(batch, DRAIN_LIMIT - 1);
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                Ingestion ingestion = batch.get(i);
+                if (ingestion == SHUTDOWN) {
+                    // Anything drained after the marker has no one left to serve it
+                    for (int j = i + 1; j < batch.size(); j++) {
+                        reject(batch.get(j).future, "Ingestor is closed");
+                    }
+                    return;
+                }
+                if (now - ingestion.submittedNanos > maxWaitNanos) {
+                    reject(ingestion.future, "Request waited longer than " + maxWaitNanos / 1_000_000 + " ms");
+                    continue;
+                }
+                PickupRequest request = ingestion.request;
+                try {
+                    ingestion.future.complete(company.scheduleTrip(request.getPassenger(),
+                            request.getPickupLocation(), request.getDestinationLocation()));
+                } catch (Throwable e) {
+                    // Errors too: a dead dispatcher would strand every queued future and block close()
+                    ingestion.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    private static final class Ingestion {
+        final PickupRequest request;
+        final CompletableFuture<Trip> future;
+        final long submittedNanos;
+        
+        Ingestion(PickupRequest request, CompletableFuture<Trip> future, long submittedNanos) {
+            this.request = request;
+            this.future = future;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+}
+
+// =============================================================================
+// EVENT LOGGING
+// =============================================================================
+
+/**
+ * Kinds of dispatch and driver events published by Company
+ */
+enum DispatchEventType {
+    TRIP_SCHEDULED,
+    LOST_FARE,
+    ARRIVED_AT_PICKUP,
+    TRIP_COMPLETED
+}
+
+/**
+ * Receives structured dispatch events. Arguments are primitives so a sink
+ * can record an event without formatting or allocating on the caller's thread.
+ */
+interface EventSink extends AutoCloseable {
+    /** Sink that discards every event */
+    EventSink NO_OP = (type, timestamp, tripId, vehicleId, passengerId, x, y) -> { };
+    
+    /**
+     * Records one event; timestamp is in epoch nanoseconds, vehicleId is 0
+     * when no vehicle is involved, and (x, y) is the pickup or drop-off point
+     */
+    void publish(DispatchEventType type, long timestamp, int tripId, int vehicleId, int passengerId, int x, int y);
+    
+    /**
+     * Flushes pending events and releases resources
+     */
+    @Override
+    default void close() {
+    }
+}
+
+/**
+ * Prints each event to the console as it happens
+ */
+class ConsoleEventSink implements EventSink {
+    @Override
+    public void publish(DispatchEventType type, long timestamp, int tripId, int vehicleId, int passengerId, int x, int y) {
+        switch (type) {
+            case TRIP_SCHEDULED:
+                System.out.printf("✓ Trip scheduled: trip %d for passenger %d assigned to vehicle %d, pickup at (%d,%d)%n",
+                                  tripId, passengerId, vehicleId, x, y);
+                break;
+            case LOST_FARE:
+                System.out.printf("✗ Lost fare: No available vehicle for passenger %d at (%d,%d)%n", passengerId, x, y);
+                break;
+            case ARRIVED_AT_PICKUP:
+                System.out.printf("Driver of vehicle %d arrived at pickup location for trip %d%n", vehicleId, tripId);
+                break;
+            case TRIP_COMPLETED:
+                System.out.printf("Trip completed: trip %d dropped off at (%d,%d)%n", tripId, x, y);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event type: " + type);
+        }
+    }
+}
+
+/**
+ * Lock-free multi-producer ring buffer in front of a single background
+ * writer, in the style of the LMAX Disruptor. Producers claim a sequence
+ * with a CAS, fill the slot's primitive columns and publish the sequence;
+ * the writer drains published slots in batches and appends them to a
+ * channel as CSV lines (timestamp,type,trip,vehicle,passenger,x,y).
+ * When the buffer is full, events are dropped and counted rather than
+ * blocking dispatch.
+ */
+class RingBufferEventSink implements EventSink {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_RECORD_BYTES = 128;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final DispatchEventType[] TYPES = DispatchEventType.values();
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+    static {
+        for (DispatchEventType type : TYPES) {
+            TYPE_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+    
+    private final int capacity;
+    private final int mask;
+    private final byte[] types;
+    private final long[] timestamps;
+    private final int[] tripIds;
+    private final int[] vehicleIds;
+    private final int[] passengerIds;
+    private final int[] xs;
+    private final int[] ys;
+    private final AtomicLongArray published; // Sequence last published in each slot
+    private final AtomicLong claimed = new AtomicLong(); // Next sequence to hand to a producer
+    private final AtomicLong consumed = new AtomicLong(); // Next sequence the writer will read
+    private final LongAdder dropped = new LongAdder();
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    
+    public RingBufferEventSink(WritableByteChannel channel, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.types = new byte[capacity];
+        this.timestamps = new long[capacity];
+        this.tripIds = new int[capacity];
+        this.vehicleIds = new int[capacity];
+        this.passengerIds = new int[capacity];
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BATCH_SIZE * MAX_RECORD_BYTES);
+        this.writer = new Thread(this::drain, "dispatch-event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Opens a sink appending to the given file
+     */
+    public static RingBufferEventSink toFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new RingBufferEventSink(channel, DEFAULT_CAPACITY);
+    }
+    
+    @Override
+    public void publish(DispatchEventType type, long timestamp, int tripId, int vehicleId, int passengerId, int x, int y) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (!running || sequence - consumed.get() >= capacity) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        
+        int slot = (int) sequence & mask;
+        types[slot] = (byte) type.ordinal();
+        timestamps[slot] = timestamp;
+        tripIds[slot] = tripId;
+        vehicleIds[slot] = vehicleId;
+        passengerIds[slot] = passengerId;
+        xs[slot] = x;
+        ys[slot] = y;
+        published.lazySet(slot, sequence); // Release: the writer sees the fields once it sees the sequence
+    }
+    
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    /**
+     * Returns the write error that stopped the writer, or null
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+    
+    /**
+     * Stops accepting events, waits for the writer to drain what was published and closes the channel
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+    
+    private void drain() {
+        long next = 0;
+        try {
+            while (running || next < claimed.get()) {
+                int count = 0;
+                while (count < BATCH_SIZE && published.get((int) (next + count) & mask) == next + count) {
+                    encode((int) (next + count) & mask);
+                    count++;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                next += count;
+                consumed.lazySet(next); // Slots are copied out, so producers may reuse them
+                flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+            running = false;
+        }
+    }
+    
+    private void encode(int slot) {
+        putDecimal(timestamps[slot]);
+        buffer.put((byte) ',');
+        buffer.put(TYPE_NAMES[types[slot]]);
+        buffer.put((byte) ',');
+        putDecimal(tripIds[slot]);
+        buffer.put((byte) ',');
+        putDecimal(vehicleIds[slot]);
+        buffer.put((byte) ',');
+        putDecimal(passengerIds[slot]);
+        buffer.put((byte) ',');
+        putDecimal(xs[slot]);
+        buffer.put((byte) ',');
+        putDecimal(ys[slot]);
+        buffer.put((byte) '\n');
+    }
+    
+    private void putDecimal(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+    
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
+
+// =============================================================================
+// FLEET METRICS
+// =============================================================================
+
+/**
+ * Concurrent histogram of non-negative values such as nanosecond
+ * latencies, with HdrHistogram-style log-linear buckets: values below 64
+ * are exact and larger ones fall into one of 32 equal sub-buckets per
+ * power of two, so reported values are within 1/32 of the recorded ones
+ * over the whole long range. Counts are striped by thread over one
+ * AtomicLongArray, so recording is a few nanoseconds and never allocates
+ * once a thread has its stripe.
+ */
+class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS; // Up to Long.MAX_VALUE
+    private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    // Handed out round-robin on a thread's first record, so threads spread evenly over the stripes
+    private static final ThreadLocal<Integer> STRIPE =
+        ThreadLocal.withInitial(() -> NEXT_STRIPE.getAndIncrement() & (STRIPES - 1));
+    
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS); // Stripe-major
+    private final LongAdder sum = new LongAdder();
+    
+    /**
+     * Records one value; negative values count as 0
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        int stripe = STRIPE.get();
+        counts.getAndIncrement(stripe * BUCKETS + bucketOf(value));
+        sum.add(value);
+    }
+    
+    /**
+     * Merges the stripes; counts recorded meanwhile may or may not be included
+     */
+    public HistogramSnapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int offset = stripe * BUCKETS;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                merged[bucket] += counts.get(offset + bucket);
+            }
+        }
+        return new HistogramSnapshot(merged, sum.sum());
+    }
+    
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+    
+    /**
+     * Largest value that falls into the given bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return (mantissa << shift) + ((1L << shift) - 1);
+    }
+    
+    private static int stripeCount(int processors) {
+        return Math.min(16, processors <= 1 ? 1 : Integer.highestOneBit(processors - 1) << 1);
+    }
+}
+
+/**
+ * Immutable counts of a LatencyHistogram at one moment
+ */
+class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    
+    HistogramSnapshot(long[] counts, long sum) {
+        this.counts = counts;
+        this.sum = sum;
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        this.count = total;
+    }
+    
+    // Getters
+    public long getCount() { return count; }
+    public long getSum() { return sum; }
+    
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+    
+    /**
+     * Nearest-rank percentile, p in (0, 100], as the highest value its bucket can hold; 0 if empty
+     */
+    public long getValueAtPercentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return LatencyHistogram.highestValueIn(bucket);
+            }
+        }
+        return getMax();
+    }
+    
+    public long getMax() {
+        for (int bucket = counts.length - 1; bucket >= 0; bucket--) {
+            if (counts[bucket] != 0) {
+                return LatencyHistogram.highestValueIn(bucket);
+            }
+        }
+        return 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("HistogramSnapshot{count=%d, mean=%.0f, p50=%d, p99=%d, max=%d}",
+                           count, getMean(), getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+    }
+}
+
+/**
+ * Live metrics a Company records on its hot paths: dispatch latency in
+ * wall-clock nanoseconds, wait and ride times on the company's clock, and
+ * time spent in each status per vehicle type. Everything is a striped
+ * counter, so recording never locks; snapshot does the summing.
+ */
+class FleetMetrics {
+    private static final int STATUSES = VehicleStatus.values().length;
+    
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram rideTimes = new LatencyHistogram();
+    private final LongAdder[] statusNanos; // Indexed by type, then status
+    
+    public FleetMetrics() {
+        statusNanos = new LongAdder[VehicleType.values().length * STATUSES];
+        for (int i = 0; i < statusNanos.length; i++) {
+            statusNanos[i] = new LongAdder();
+        }
+    }
+    
+    public void recordDispatch(long nanos) {
+        dispatchLatency.record(nanos);
+    }
+    
+    public void recordCompleted(Trip trip) {
+        waitTimes.record(trip.getWaitTimeNanos());
+        rideTimes.record(trip.getRideTimeNanos());
+    }
+    
+    public void recordStatusTime(VehicleType type, VehicleStatus status, long nanos) {
+        statusNanos[type.ordinal() * STATUSES + status.ordinal()].add(nanos);
+    }
+    
+    /**
+     * Sums the counters, adding each vehicle's time in its current status so far
+     */
+    MetricsSnapshot snapshot(long now, Iterable<Vehicle> fleet, long completed, long lost, long active, long pending) {
+        long[] status = new long[statusNanos.length];
+        for (int i = 0; i < status.length; i++) {
+            status[i] = statusNanos[i].sum();
+        }
+        for (Vehicle vehicle : fleet) {
+            status[vehicle.getType().ordinal() * STATUSES + vehicle.getStatus().ordinal()]
+                += Math.max(now - vehicle.getStatusSince(), 0);
+        }
+        return new MetricsSnapshot(now, completed, lost, active, pending, dispatchLatency.snapshot(),
+                                   waitTimes.snapshot(), rideTimes.snapshot(), status);
+    }
+}
+
+/**
+ * Company metrics at one moment, with export in the Prometheus text
+ * format, e.g. for the node exporter's textfile collector
+ */
+class MetricsSnapshot {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final int STATUSES = VehicleStatus.values().length;
+    
+    private final long timeNanos;
+    private final long completedTrips;
+    private final long lostFares;
+    private final long activeTrips;
+    private final long pendingRequests;
+    private final HistogramSnapshot dispatchLatency;
+    private final HistogramSnapshot waitTimes;
+    private final HistogramSnapshot rideTimes;
+    private final long[] statusNanos; // Indexed by type, then status
+    
+    MetricsSnapshot(long timeNanos, long completedTrips, long lostFares, long activeTrips, long pendingRequests,
+                    HistogramSnapshot dispatchLatency, HistogramSnapshot waitTimes, HistogramSnapshot rideTimes,
+                    long[] statusNanos) {
+        this.timeNanos = timeNanos;
+        this.completedTrips = completedTrips;
+        this.lostFares = lostFares;
+        this.activeTrips = activeTrips;
+        this.pendingRequests = pendingRequests;
+        this.dispatchLatency = dispatchLatency;
+        this.waitTimes = waitTimes;
+        this.rideTimes = rideTimes;
+        this.statusNanos = statusNanos;
+    }
+    
+    // Getters
+    public long getTimeNanos() { return timeNanos; }
+    public long getRequests() { return dispatchLatency.getCount(); }
+    public long getCompletedTrips() { return completedTrips; }
+    public long getLostFares() { return lostFares; }
+    public long getActiveTrips() { return activeTrips; }
+    public long getPendingRequests() { return pendingRequests; }
+    public HistogramSnapshot getDispatchLatency() { return dispatchLatency; }
+    public HistogramSnapshot getWaitTimes() { return waitTimes; }
+    public HistogramSnapshot getRideTimes() { return rideTimes; }
+    
+    public long getStatusNanos(VehicleType type, VehicleStatus status) {
+        return statusNanos[type.ordinal() * STATUSES + status.ordinal()];
+    }
+    
+    /**
+     * Share of in-service time the vehicles of a type spent on trips; maintenance is out of service
+     */
+    public double getUtilisation(VehicleType type) {
+        long inService = 0;
+        long busy = 0;
+        for (VehicleStatus status : VehicleStatus.values()) {
+            if (status == VehicleStatus.MAINTENANCE) {
+                continue;
+            }
+            long nanos = getStatusNanos(type, status);
+            inService += nanos;
+            if (status != VehicleStatus.AVAILABLE) {
+                busy += nanos;
+            }
+        }
+        return inService == 0 ? 0 : (double) busy / inService;
+    }
+    
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "balextranit_requests_total", "Pickup requests dispatched", getRequests());
+        counter(out, "balextranit_trips_completed_total", "Trips completed", completedTrips);
+        counter(out, "balextranit_lost_fares_total", "Requests lost for want of a vehicle", lostFares);
+        gauge(out, "balextranit_active_trips", "Trips assigned and not yet completed", activeTrips);
+        gauge(out, "balextranit_pending_requests", "Requests waiting for a vehicle", pendingRequests);
+        summary(out, "balextranit_dispatch_latency_seconds", "Wall-clock time to dispatch a request", dispatchLatency);
+        summary(out, "balextranit_wait_time_seconds", "Time from request to pickup of completed trips", waitTimes);
+        summary(out, "balextranit_ride_time_seconds", "Time from pickup to drop-off of completed trips", rideTimes);
+        
+        header(out, "balextranit_vehicle_status_seconds_total", "Vehicle time spent in each status", "counter");
+        for (VehicleType type : VehicleType.values()) {
+            for (VehicleStatus status : VehicleStatus.values()) {
+                out.append("balextranit_vehicle_status_seconds_total{type=\"").append(type)
+                   .append("\",status=\"").append(status).append("\"} ")
+                   .append(getStatusNanos(type, status) / 1e9).append('\n');
+            }
+        }
+        header(out, "balextranit_vehicle_utilisation", "Share of in-service time spent on trips", "gauge");
+        for (VehicleType type : VehicleType.values()) {
+            out.append("balextranit_vehicle_utilisation{type=\"").append(type).append("\"} ")
+               .append(getUtilisation(type)).append('\n');
+        }
+        return out.toString();
+    }
+    
+    /**
+     * Writes the Prometheus text to a sibling temporary file and moves it
+     * into place, so a collector never reads a half-written file
+     */
+    public void writePrometheusFile(Path path) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, toPrometheusText());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write metrics to " + path, e);
+        }
+    }
+    
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+    
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+    
+    private static void summary(StringBuilder out, String name, String help, HistogramSnapshot nanos) {
+        header(out, name, help, "summary");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+               .append(nanos.getValueAtPercentile(100 * quantile) / 1e9).append('\n');
+        }
+        out.append(name).append("_sum ").append(nanos.getSum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(nanos.getCount()).append('\n');
+    }
+    
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("MetricsSnapshot{requests=%d, completed=%d, lost=%d, active=%d, pending=%d, "
+                           + "dispatchP99=%dns, waitP50=%.0fs, rideP50=%.0fs}",
+                           getRequests(), completedTrips, lostFares, activeTrips, pendingRequests,
+                           dispatchLatency.getValueAtPercentile(99), waitTimes.getValueAtPercentile(50) / 1e9,
+                           rideTimes.getValueAtPercentile(50) / 1e9);
+    }
+}
+
+// =============================================================================
+// TRIP HISTORY
+// =============================================================================
+
+/**
+ * How much trip history a Company keeps: at most maxTrips individual trips,
+ * none older than windowMillis, plus per-hour aggregates for the last
+ * aggregateHours hours
+ */
+class RetentionPolicy {
+    static final RetentionPolicy DEFAULT = new RetentionPolicy(100_000, 24L * 60 * 60 * 1000, 24 * 31);
+    
+    private final int maxTrips;
+    private final long windowMillis;
+    private final int aggregateHours;
+    
+    public RetentionPolicy(int maxTrips, long windowMillis, int aggregateHours) {
+        if (maxTrips <= 0 || windowMillis <= 0 || aggregateHours <= 0) {
+            throw new IllegalArgumentException("Retention limits must be positive");
+        }
+        this.maxTrips = maxTrips;
+        this.windowMillis = windowMillis;
+        this.aggregateHours = aggregateHours;
+    }
+    
+    // Getters
+    public int getMaxTrips() { return maxTrips; }
+    public long getWindowMillis() { return windowMillis; }
+    public int getAggregateHours() { return aggregateHours; }
+    
+    @Override
+    public String toString() {
+        return String.format("RetentionPolicy{maxTrips=%d, windowMillis=%d, aggregateHours=%d}",
+                           maxTrips, windowMillis, aggregateHours);
+    }
+}
+
+/**
+ * Totals for the trips that finished within one clock hour; hourStart is in epoch milliseconds
+ */
+class HourlyTripStats {
+    static final long HOUR_MILLIS = 60L * 60 * 1000;
+    
+    private final long hourStart;
+    private long trips;
+    private long passengers;
+    private long totalWaitNanos;
+    private long totalRideNanos;
+    
+    HourlyTripStats(long hourStart) {
+        this.hourStart = hourStart;
+    }
+    
+    HourlyTripStats(HourlyTripStats other) {
+        this.hourStart = other.hourStart;
+        this.trips = other.trips;
+        this.passengers = other.passengers;
+        this.totalWaitNanos = other.totalWaitNanos;
+        this.totalRideNanos = other.totalRideNanos;
+    }
+    
+    void record(Trip trip) {
+        trips++;
+        passengers += trip.getPassenger().getGroupSize();
+        totalWaitNanos += Math.max(trip.getWaitTimeNanos(), 0);
+        totalRideNanos += Math.max(trip.getRideTimeNanos(), 0);
+    }
+    
+    // Getters
+    public long getHourStart() { return hourStart; }
+    public long getTrips() { return trips; }
+    public long getPassengers() { return passengers; }
+    public long getTotalWaitNanos() { return totalWaitNanos; }
+    public long getTotalRideNanos() { return totalRideNanos; }
+    
+    @Override
+    public String toString() {
+        return String.format("HourlyTripStats{hourStart=%d, trips=%d, passengers=%d, waitNanos=%d, rideNanos=%d}",
+                           hourStart, trips, passengers, totalWaitNanos, totalRideNanos);
+    }
+}
+
+/**
+ * Rolling history of finished trips. Individual trips live in a ring that
+ * drops the oldest once it is full or once they fall out of the time window,
+ * while every trip is also folded into a ring of hourly aggregates, so
+ * memory stays flat under continuous load. A trip's time is its drop-off
+ * time, or its request time if it never completed.
+ */
+class TripHistory implements Iterable<Trip> {
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private final RetentionPolicy policy;
+    private Trip[] trips = new Trip[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private final HourlyTripStats[] hours; // Indexed by hour number modulo the ring length
+    
+    public TripHistory(RetentionPolicy policy) {
+        this.policy = policy;
+        this.hours = new HourlyTripStats[policy.getAggregateHours()];
+    }
+    
+    public synchronized void add(Trip trip) {
+        long time = finishTime(trip);
+        
+        // Evict trips that fell out of the window, then make room if still full
+        long cutoff = time - policy.getWindowMillis() * 1_000_000L;
+        while (size > 0 && times[head] < cutoff) {
+            evictOldest();
+        }
+        if (size == policy.getMaxTrips()) {
+            evictOldest();
+        }
+        if (size == trips.length) {
+            grow();
+        }
+        int tail = (head + size) % trips.length;
+        trips[tail] = trip;
+        times[tail] = time;
+        size++;
+        
+        long hour = Math.floorDiv(time, HourlyTripStats.HOUR_MILLIS * 1_000_000L);
+        int bucket = (int) Math.floorMod(hour, (long) hours.length);
+        if (hours[bucket] == null || hours[bucket].getHourStart() != hour * HourlyTripStats.HOUR_MILLIS) {
+            hours[bucket] = new HourlyTripStats(hour * HourlyTripStats.HOUR_MILLIS); // Reuse the slot of an expired hour
+        }
+        hours[bucket].record(trip);
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * Snapshot of the retained trips, oldest first
+     */
+    public synchronized List<Trip> snapshot() {
+        List<Trip> snapshot = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            snapshot.add(trips[(head + i) % trips.length]);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Iterates over a snapshot, so concurrent adds and evictions are not seen
+     */
+    @Override
+    public Iterator<Trip> iterator() {
+        return snapshot().iterator();
+    }
+    
+    /**
+     * Snapshot of the retained hourly aggregates, oldest hour first
+     */
+    public synchronized List<HourlyTripStats> hourlyStats() {
+        List<HourlyTripStats> stats = new ArrayList<>();
+        for (HourlyTripStats hour : hours) {
+            if (hour != null) {
+                stats.add(new HourlyTripStats(hour));
+            }
+        }
+        stats.sort(Comparator.comparingLong(HourlyTripStats::getHourStart));
+        return stats;
+    }
+    
+    private void evictOldest() {
+        trips[head] = null;
+        head = (head + 1) % trips.length;
+        size--;
+    }
+    
+    private void grow() {
+        int capacity = Math.min(trips.length * 2, policy.getMaxTrips());
+        Trip[] grownTrips = new Trip[capacity];
+        long[] grownTimes = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            grownTrips[i] = trips[(head + i) % trips.length];
+            grownTimes[i] = times[(head + i) % trips.length];
+        }
+        trips = grownTrips;
+        times = grownTimes;
+        head = 0;
+    }
+    
+    private static long finishTime(Trip trip) {
+        return trip.isCompleted() ? trip.getDropoffTimeNanos() : trip.getRequestTimeNanos();
+    }
+}
+
+// =============================================================================
+// TRIP JOURNAL
+// =============================================================================
+
+/**
+ * Append-only write-ahead journal of finished trips (completed and lost)
+ * in fixed-width binary records on a memory-mapped file. Appends claim a
+ * record index atomically and write with absolute puts, so concurrent
+ * appenders never lock; a commit marker written last lets recovery skip
+ * records torn by a crash. The file is mapped in regions and grows as
+ * regions fill.
+ *
+ * Record layout (64 bytes): trip id, passenger id, group size, pickup x/y,
+ * destination x/y, vehicle id (0 if none), request/pickup/drop-off times
+ * (epoch nanos, 0 if none), kind, padding, commit marker.
+ */
+class TripJournal implements AutoCloseable {
+    static final int RECORD_SIZE = 64;
+    static final int HEADER_SIZE = 64;
+    static final int RECORDS_PER_REGION = 1 << 20;
+    private static final long REGION_SIZE = (long) RECORD_SIZE * RECORDS_PER_REGION;
+    private static final long FILE_MAGIC = 0x42414C5452495053L; // "BALTRIPS"
+    private static final int FORMAT_VERSION = 2; // Version 2: nanosecond timestamps
+    private static final int COMMIT_MARKER = 0x7E1DC0DE;
+    private static final byte KIND_COMPLETED = 1;
+    private static final byte KIND_LOST = 2;
+    // Release store for the commit marker, so a reader that sees it also sees the fields before it
+    private static final VarHandle MARKER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    
+    // Field offsets within a record
+    private static final int TRIP_ID = 0;
+    private static final int PASSENGER_ID = 4;
+    private static final int GROUP_SIZE = 8;
+    private static final int PICKUP_X = 12;
+    private static final int PICKUP_Y = 16;
+    private static final int DESTINATION_X = 20;
+    private static final int DESTINATION_Y = 24;
+    private static final int VEHICLE_ID = 28;
+    private static final int REQUEST_TIME = 32;
+    private static final int PICKUP_TIME = 40;
+    private static final int DROPOFF_TIME = 48;
+    private static final int KIND = 56;
+    private static final int COMMIT = 60;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final AtomicReferenceArray<MappedByteBuffer> regions = new AtomicReferenceArray<>(1 << 12);
+    private final AtomicLong nextRecord;
+    
+    private TripJournal(FileChannel channel, long nextRecord) throws IOException {
+        this.channel = channel;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        this.nextRecord = new AtomicLong(nextRecord);
+    }
+    
+    /**
+     * Opens the journal at the given path, creating it if needed. Appends
+     * continue after the last committed record found on disk.
+     */
+    public static TripJournal open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            TripJournal journal = new TripJournal(channel, 0);
+            if (journal.header.getLong(0) == 0) {
+                journal.header.putInt(12, RECORD_SIZE);
+                journal.header.putInt(8, FORMAT_VERSION);
+                journal.header.putLong(0, FILE_MAGIC);
+            } else if (journal.header.getLong(0) != FILE_MAGIC
+                       || journal.header.getInt(8) != FORMAT_VERSION
+                       || journal.header.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Not a trip journal: " + path);
+            }
+            journal.nextRecord.set(journal.lastCommittedRecord() + 1);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Appends one finished trip; completed is false for a lost fare
+     */
+    public void append(Trip trip, boolean completed) {
+        long record = nextRecord.getAndIncrement();
+        MappedByteBuffer region = region(record);
+        int offset = (int) (record % RECORDS_PER_REGION) * RECORD_SIZE;
+        Vehicle vehicle = trip.getAssignedVehicle();
+        region.putInt(offset + TRIP_ID, trip.getTripId());
+        region.putInt(offset + PASSENGER_ID, trip.getPassenger().getPassengerId());
+        region.putInt(offset + GROUP_SIZE, trip.getPassenger().getGroupSize());
+        region.putInt(offset + PICKUP_X, trip.getPickupLocation().getX());
+        region.putInt(offset + PICKUP_Y, trip.getPickupLocation().getY());
+        region.putInt(offset + DESTINATION_X, trip.getDestinationLocation().getX());
+        region.putInt(offset + DESTINATION_Y, trip.getDestinationLocation().getY());
+        region.putInt(offset + VEHICLE_ID, vehicle != null ? vehicle.getVehicleId() : 0);
+        region.putLong(offset + REQUEST_TIME, trip.getRequestTimeNanos());
+        region.putLong(offset + PICKUP_TIME, trip.getPickupTimeNanos());
+        region.putLong(offset + DROPOFF_TIME, trip.getDropoffTimeNanos());
+        region.put(offset + KIND, completed ? KIND_COMPLETED : KIND_LOST);
+        MARKER.setRelease(region, offset + COMMIT, COMMIT_MARKER);
+    }
+    
+    /**
+     * Replays every committed record into the company's trip history and
+     * returns the number of trips restored. Vehicles are matched by id
+     * against the company's current fleet.
+     */
+    public long replay(Company company) {
+        long end = nextRecord.get();
+        long restored = 0;
+        for (long record = 0; record < end; record++) {
+            MappedByteBuffer region = region(record);
+            int offset = (int) (record % RECORDS_PER_REGION) * RECORD_SIZE;
+            if ((int) MARKER.getAcquire(region, offset + COMMIT) != COMMIT_MARKER) {
+                continue; // Torn by a crash, or still being appended
+            }
+            int passengerId = region.getInt(offset + PASSENGER_ID);
+            Passenger passenger = new Passenger(passengerId, "Passenger " + passengerId, null,
+                                                region.getInt(offset + GROUP_SIZE));
+            Trip trip = new Trip(region.getInt(offset + TRIP_ID), passenger,
+                                 Location.of(region.getInt(offset + PICKUP_X), region.getInt(offset + PICKUP_Y)),
+                                 Location.of(region.getInt(offset + DESTINATION_X), region.getInt(offset + DESTINATION_Y)),
+                                 company.findVehicleById(region.getInt(offset + VEHICLE_ID)),
+                                 region.getLong(offset + REQUEST_TIME),
+                                 region.getLong(offset + PICKUP_TIME),
+                                 region.getLong(offset + DROPOFF_TIME));
+            company.restoreTrip(trip, region.get(offset + KIND) == KIND_COMPLETED);
+            restored++;
+        }
+        return restored;
+    }
+    
+    /**
+     * Number of record slots used so far, including any torn by a crash
+     */
+    public long getRecordCount() {
+        return nextRecord.get();
+    }
+    
+    /**
+     * Forces appended records to the storage device
+     */
+    public void sync() {
+        header.force();
+        for (int i = 0; i < regions.length(); i++) {
+            MappedByteBuffer region = regions.get(i);
+            if (region != null) {
+                region.force();
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+    
+    private long lastCommittedRecord() throws IOException {
+        long records = Math.max(0, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        for (long record = records - 1; record >= 0; record--) {
+            MappedByteBuffer region = region(record);
+            if (region.getInt((int) (record % RECORDS_PER_REGION) * RECORD_SIZE + COMMIT) == COMMIT_MARKER) {
+                return record;
+            }
+        }
+        return -1;
+    }
+    
+    private MappedByteBuffer region(long record) {
+        int index = (int) (record / RECORDS_PER_REGION);
+        MappedByteBuffer region = regions.get(index);
+        if (region == null) {
+            region = mapRegion(index);
+        }
+        return region;
+    }
+    
+    private synchronized MappedByteBuffer mapRegion(int index) {
+        MappedByteBuffer region = regions.get(index);
+        if (region == null) {
+            try {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + index * REGION_SIZE, REGION_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot map trip journal region " + index, e);
+            }
+            regions.set(index, region);
+        }
+        return region;
+    }
+}
+
+// =============================================================================
+// SIMULATION
+// =============================================================================
+
+/**
+ * Simulated clock advanced by FleetSimulator; not thread-safe
+ */
+class SimulationClock implements TimeSource {
+    private long now;
+    
+    SimulationClock(long startNanos) {
+        this.now = startNanos;
+    }
+    
+    @Override
+    public long epochNanos() {
+        return now;
+    }
+    
+    void advanceTo(long time) {
+        now = time;
+    }
+}
+
+/**
+ * Summary of one simulation run; times are simulated unless noted
+ */
+class SimulationReport {
+    private final long requests;
+    private final long completedTrips;
+    private final long lostFares;
+    private final long events;
+    private final int fleetSize;
+    private final long simulatedNanos;
+    private final long totalWaitNanos;
+    private final long busyVehicleNanos;
+    private final double busySeatNanos; // Busy time weighted by vehicle capacity
+    private final double passengerNanos; // Ride time weighted by group size
+    private final long wallClockNanos;
+    
+    SimulationReport(long requests, long completedTrips, long lostFares, long events, int fleetSize,
+                     long simulatedNanos, long totalWaitNanos, long busyVehicleNanos,
+                     double busySeatNanos, double passengerNanos, long wallClockNanos) {
+        this.requests = requests;
+        this.completedTrips = completedTrips;
+        this.lostFares = lostFares;
+        this.events = events;
+        this.fleetSize = fleetSize;
+        this.simulatedNanos = simulatedNanos;
+        this.totalWaitNanos = totalWaitNanos;
+        this.busyVehicleNanos = busyVehicleNanos;
+        this.busySeatNanos = busySeatNanos;
+        this.passengerNanos = passengerNanos;
+        this.wallClockNanos = wallClockNanos;
+    }
+    
+    // Getters
+    public long getRequests() { return requests; }
+    public long getCompletedTrips() { return completedTrips; }
+    public long getLostFares() { return lostFares; }
+    public long getEvents() { return events; }
+    public int getFleetSize() { return fleetSize; }
+    public long getSimulatedNanos() { return simulatedNanos; }
+    public long getWallClockNanos() { return wallClockNanos; }
+    
+    public double getLostFareRate() {
+        return requests == 0 ? 0 : (double) lostFares / requests;
+    }
+    
+    public double getMeanWaitSeconds() {
+        return completedTrips == 0 ? 0 : totalWaitNanos / 1e9 / completedTrips;
+    }
+    
+    /**
+     * Share of fleet time spent serving trips, from assignment to drop-off
+     */
+    public double getUtilisation() {
+        return fleetSize == 0 || simulatedNanos == 0 ? 0 : (double) busyVehicleNanos / ((double) fleetSize * simulatedNanos);
+    }
+    
+    /**
+     * Share of seats filled while vehicles are busy, counting from each pickup to its drop-off
+     */
+    public double getSeatOccupancy() {
+        return busySeatNanos == 0 ? 0 : passengerNanos / busySeatNanos;
+    }
+    
+    public double getRequestsPerMinute() {
+        return wallClockNanos == 0 ? 0 : requests * 60e9 / wallClockNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("SimulationReport{requests=%d, completed=%d, lost=%d (%.1f%%), meanWait=%.1fs, "
+                           + "utilisation=%.1f%%, occupancy=%.1f%%, simulated=%.1fh, %,.0f requests/min}",
+                           requests, completedTrips, lostFares, 100 * getLostFareRate(), getMeanWaitSeconds(),
+                           100 * getUtilisation(), 100 * getSeatOccupancy(), simulatedNanos / 3.6e12,
+                           getRequestsPerMinute());
+    }
+}
+
+/**
+ * Discrete-event simulator for fleet capacity planning. Requests arrive as
+ * the PassengerSource's demand model times them and are dispatched by a real Company on a simulated
+ * clock; each assigned vehicle then drives to the pickup, boards, carries
+ * the group and drops it off, with travel time taken from Location.distanceTo
+ * and status moving through VehicleStatus at every step. If the company
+ * keeps unmatched requests pending, vehicles go from a drop-off straight
+ * to the request they are handed, and deadlines are settled on time; if it
+ * pools rides, vehicles drive stop to stop along their route. Events live in a
+ * binary heap over primitive arrays, so the event loop does not allocate.
+ */
+class FleetSimulator {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    
+    // Event kinds
+    private static final byte REQUEST = 0;
+    private static final byte ARRIVE_AT_PICKUP = 1;
+    private static final byte DEPART_PICKUP = 2;
+    private static final byte ARRIVE_AT_DESTINATION = 3;
+    private static final byte DROP_OFF = 4;
+    private static final byte PENDING_DEADLINE = 5;
+    
+    private final Company company;
+    private final PassengerSource source;
+    private final SimulationClock clock;
+    private double speedPerSecond = 0.04; // Grid units per second: 200 m units at 30 km/h
+    private long boardingNanos = 60 * NANOS_PER_SECOND;
+    private long alightingNanos = 30 * NANOS_PER_SECOND;
+    
+    // Event heap ordered by (time, sequence)
+    private long[] eventTimes = new long[1024];
+    private long[] eventSequences = new long[1024];
+    private byte[] eventKinds = new byte[1024];
+    private int[] eventVehicles = new int[1024];
+    private int eventCount;
+    private long nextSequence;
+    
+    public FleetSimulator(Company company, PassengerSource source) {
+        this.company = company;
+        this.source = source;
+        // Simulated time starts where the company's clock is now
+        this.clock = new SimulationClock(company.getTimeSource().epochNanos());
+        company.setTimeSource(clock);
+    }
+    
+    // Configuration
+    public FleetSimulator setSpeedPerSecond(double speedPerSecond) {
+        this.speedPerSecond = speedPerSecond;
+        return this;
+    }
+    
+    public FleetSimulator setBoardingSeconds(double seconds) {
+        this.boardingNanos = (long) (seconds * NANOS_PER_SECOND);
+        return this;
+    }
+    
+    public FleetSimulator setAlightingSeconds(double seconds) {
+        this.alightingNanos = (long) (seconds * NANOS_PER_SECOND);
+        return this;
+    }
+    
+    /**
+     * Simulates the given number of requests, or fewer if the demand model
+     * runs out, and runs until every trip has finished
+     */
+    public SimulationReport run(long requests) {
+        long wallStart = System.nanoTime();
+        long startTime = clock.epochNanos();
+        long startCompleted = company.getTotalCompletedTrips();
+        long startLost = company.getTotalLostFares();
+        long issued = 0;
+        long events = 0;
+        long totalWaitNanos = 0;
+        long busyVehicleNanos = 0;
+        double busySeatNanos = 0;
+        double passengerNanos = 0;
+        long[] busySince = new long[company.getFleet().size()]; // By fleet slot
+        
+        // Requests arrive in order, so only the next one is ever pending
+        PickupRequest pending = requests > 0 ? source.nextRequest() : null;
+        if (pending != null) {
+            push(startTime + source.getLastArrivalGapNanos(), REQUEST, 0);
+        }
+        while (eventCount > 0) {
+            long time = eventTimes[0];
+            byte kind = eventKinds[0];
+            int vehicleId = eventVehicles[0];
+            pop();
+            clock.advanceTo(time);
+            events++;
+            
+            switch (kind) {
+                case REQUEST: {
+                    issued++;
+                    PickupRequest request = pending;
+                    pending = issued < requests ? source.nextRequest() : null;
+                    if (pending != null) {
+                        push(time + source.getLastArrivalGapNanos(), REQUEST, 0);
+                    }
+                    Trip trip = company.scheduleTrip(request.getPassenger(), request.getPickupLocation(),
+                                                     request.getDestinationLocation());
+                    Vehicle vehicle = trip.getAssignedVehicle();
+                    if (vehicle != null) {
+                        if (vehicle.getCurrentTrip() == trip) {
+                            // Was idle; a trip joining a pooled route is reached in turn
+                            busySince[vehicle.fleetSlot] = time;
+                            travelToNextStop(vehicle, time);
+                        }
+                    } else if (company.getMaxPendingWaitMillis() > 0) {
+                        // Waiting for a vehicle; settle it as a lost fare if none frees up in time
+                        push(time + company.getMaxPendingWaitMillis() * 1_000_000L, PENDING_DEADLINE, 0);
+                    }
+                    break;
+                }
+                case ARRIVE_AT_PICKUP:
+                    company.notifyArrivedAtPickup(vehicleId);
+                    push(time + boardingNanos, DEPART_PICKUP, vehicleId);
+                    break;
+                case DEPART_PICKUP: {
+                    Vehicle vehicle = company.findVehicleById(vehicleId);
+                    vehicle.setStatus(VehicleStatus.TRANSPORTING);
+                    travelToNextStop(vehicle, time);
+                    break;
+                }
+                case ARRIVE_AT_DESTINATION:
+                    company.findVehicleById(vehicleId).setStatus(VehicleStatus.DROPPING_OFF);
+                    push(time + alightingNanos, DROP_OFF, vehicleId);
+                    break;
+                case DROP_OFF: {
+                    Vehicle vehicle = company.findVehicleById(vehicleId);
+                    Trip trip = vehicle.getCurrentTrip();
+                    company.notifyDroppedOff(vehicleId);
+                    totalWaitNanos += trip.getWaitTimeNanos();
+                    passengerNanos += (double) trip.getPassenger().getGroupSize() * trip.getRideTimeNanos();
+                    if (vehicle.getCurrentTrip() != null) {
+                        // More stops on the route, or handed straight to a pending request
+                        travelToNextStop(vehicle, time);
+                    } else {
+                        long busy = time - busySince[vehicle.fleetSlot];
+                        busyVehicleNanos += busy;
+                        busySeatNanos += (double) vehicle.getType().getCapacity() * busy;
+                    }
+                    break;
+                }
+                case PENDING_DEADLINE:
+                    company.expirePendingRequests();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event kind: " + kind);
+            }
+        }
+        
+        return new SimulationReport(issued, company.getTotalCompletedTrips() - startCompleted,
+                                    company.getTotalLostFares() - startLost, events, company.getFleet().size(),
+                                    clock.epochNanos() - startTime, totalWaitNanos, busyVehicleNanos,
+                                    busySeatNanos, passengerNanos, System.nanoTime() - wallStart);
+    }
+    
+    private void travelToNextStop(Vehicle vehicle, long time) {
+        Stop stop = vehicle.getNextStop();
+        push(time + travelNanos(vehicle.getCurrentLocation(), stop.getLocation()),
+             stop.isPickup() ? ARRIVE_AT_PICKUP : ARRIVE_AT_DESTINATION, vehicle.getVehicleId());
+    }
+    
+    private long travelNanos(Location from, Location to) {
+        return (long) (from.distanceTo(to) / speedPerSecond * NANOS_PER_SECOND);
+    }
+    
+    private void push(long time, byte kind, int vehicleId) {
+        if (eventCount == eventTimes.length) {
+            int capacity = eventCount * 2;
+            eventTimes = Arrays.copyOf(eventTimes, capacity);
+            eventSequences = Arrays.copyOf(eventSequences, capacity);
+            eventKinds = Arrays.copyOf(eventKinds, capacity);
+            eventVehicles = Arrays.copyOf(eventVehicles, capacity);
+        }
+        long sequence = nextSequence++;
+        int index = eventCount++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(time, sequence, parent)) {
+                break;
+            }
+            moveEvent(parent, index);
+            index = parent;
+        }
+        setEvent(index, time, sequence, kind, vehicleId);
+    }
+    
+    private void pop() {
+        int last = --eventCount;
+        if (last == 0) {
+            return;
+        }
+        long time = eventTimes[last];
+        long sequence = eventSequences[last];
+        byte kind = eventKinds[last];
+        int vehicleId = eventVehicles[last];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && before(eventTimes[child + 1], eventSequences[child + 1], child)) {
+                child++;
+            }
+            if (!before(eventTimes[child], eventSequences[child], time, sequence)) {
+                break;
+            }
+            moveEvent(child, index);
+            index = child;
+        }
+        setEvent(index, time, sequence, kind, vehicleId);
+    }
+    
+    private boolean before(long time, long sequence, int index) {
+        return before(time, sequence, eventTimes[index], eventSequences[index]);
+    }
+    
+    private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+        return time < otherTime || (time == otherTime && sequence < otherSequence);
+    }
+    
+    private void moveEvent(int from, int to) {
+        setEvent(to, eventTimes[from], eventSequences[from], eventKinds[from], eventVehicles[from]);
+    }
+    
+    private void setEvent(int index, long time, long sequence, byte kind, int vehicleId) {
+        eventTimes[index] = time;
+        eventSequences[index] = sequence;
+        eventKinds[index] = kind;
+        eventVehicles[index] = vehicleId;
+    }
+}
+
+/**
+ * Fleet mix and demand for one set of Monte Carlo runs
+ */
+class Scenario {
+    private final String name;
+    private final int taxis;
+    private final int shuttles;
+    private final long requests;
+    private final Supplier<DemandModel> demand;
+    
+    /**
+     * Scenario with uniform demand at the given rate
+     */
+    public Scenario(String name, int taxis, int shuttles, long requests, double requestsPerSecond) {
+        this(name, taxis, shuttles, requests, () -> new UniformDemand(requestsPerSecond));
+    }
+    
+    /**
+     * Scenario whose runs each get a fresh demand model from the supplier
+     */
+    public Scenario(String name, int taxis, int shuttles, long requests, Supplier<DemandModel> demand) {
+        this.name = name;
+        this.taxis = taxis;
+        this.shuttles = shuttles;
+        this.requests = requests;
+        this.demand = demand;
+    }
+    
+    // Getters
+    public String getName() { return name; }
+    public int getTaxis() { return taxis; }
+    public int getShuttles() { return shuttles; }
+    public long getRequests() { return requests; }
+    
+    public DemandModel newDemandModel() {
+        return demand.get();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Scenario{name='%s', taxis=%d, shuttles=%d, requests=%d}",
+                           name, taxis, shuttles, requests);
+    }
+}
+
+/**
+ * Samples of one measure collected across runs; not thread-safe, merge per-thread copies instead
+ */
+class Distribution {
+    private double[] values = new double[16];
+    private int count;
+    private boolean sorted = true;
+    
+    public void add(double value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+        sorted = false;
+    }
+    
+    public void addAll(Distribution other) {
+        if (count + other.count > values.length) {
+            values = Arrays.copyOf(values, Math.max(count + other.count, count * 2));
+        }
+        System.arraycopy(other.values, 0, values, count, other.count);
+        count += other.count;
+        sorted = false;
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    public double getMean() {
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += values[i];
+        }
+        return count == 0 ? 0 : total / count;
+    }
+    
+    /**
+     * Nearest-rank percentile, p in [0, 100]
+     */
+    public double getPercentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(values, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(p / 100 * count);
+        return values[Math.min(Math.max(rank - 1, 0), count - 1)];
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("mean=%.3f p5=%.3f p50=%.3f p95=%.3f",
+                           getMean(), getPercentile(5), getPercentile(50), getPercentile(95));
+    }
+}
+
+/**
+ * Merged outcome of all runs of one scenario
+ */
+class ScenarioResult {
+    private final Scenario scenario;
+    private final Distribution lostFareRates = new Distribution();
+    private final Distribution utilisations = new Distribution();
+    private final Distribution meanWaitSeconds = new Distribution();
+    private long wallClockNanos;
+    
+    ScenarioResult(Scenario scenario) {
+        this.scenario = scenario;
+    }
+    
+    void add(SimulationReport report) {
+        lostFareRates.add(report.getLostFareRate());
+        utilisations.add(report.getUtilisation());
+        meanWaitSeconds.add(report.getMeanWaitSeconds());
+    }
+    
+    ScenarioResult merge(ScenarioResult other) {
+        lostFareRates.addAll(other.lostFareRates);
+        utilisations.addAll(other.utilisations);
+        meanWaitSeconds.addAll(other.meanWaitSeconds);
+        return this;
+    }
+    
+    void setWallClockNanos(long wallClockNanos) {
+        this.wallClockNanos = wallClockNanos;
+    }
+    
+    // Getters
+    public Scenario getScenario() { return scenario; }
+    public int getRuns() { return lostFareRates.getCount(); }
+    public Distribution getLostFareRates() { return lostFareRates; }
+    public Distribution getUtilisations() { return utilisations; }
+    public Distribution getMeanWaitSeconds() { return meanWaitSeconds; }
+    public long getWallClockNanos() { return wallClockNanos; }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: %d runs in %.2fs%n  lost fare rate: %s%n  utilisation:    %s%n  mean wait (s):  %s",
+                           scenario.getName(), getRuns(), wallClockNanos / 1e9,
+                           lostFareRates, utilisations, meanWaitSeconds);
+    }
+}
+
+/**
+ * Fans independent simulation runs of a scenario out over a fork-join pool.
+ * Every run builds its own Company and PassengerSource and draws from its
+ * own SplittableRandom, split from the scenario seed before any run starts,
+ * so runs share no mutable state and results do not depend on scheduling
+ * or parallelism. Per-run results are merged up the fork-join tree.
+ */
+class ScenarioRunner {
+    // Runs only need counters, so keep little history per company
+    private static final RetentionPolicy RUN_RETENTION = new RetentionPolicy(1_000, 24L * 60 * 60 * 1000, 48);
+    
+    private final ForkJoinPool pool;
+    private final int runsPerScenario;
+    
+    public ScenarioRunner(int runsPerScenario) {
+        this(runsPerScenario, ForkJoinPool.commonPool());
+    }
+    
+    public ScenarioRunner(int runsPerScenario, ForkJoinPool pool) {
+        if (runsPerScenario <= 0) {
+            throw new IllegalArgumentException("Runs per scenario must be positive");
+        }
+        this.runsPerScenario = runsPerScenario;
+        this.pool = pool;
+    }
+    
+    public ScenarioResult run(Scenario scenario, long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[runsPerScenario];
+        for (int i = 0; i < runsPerScenario; i++) {
+            randoms[i] = root.split();
+        }
+        long start = System.nanoTime();
+        ScenarioResult result = pool.invoke(new RunTask(scenario, randoms, 0, runsPerScenario));
+        result.setWallClockNanos(System.nanoTime() - start);
+        return result;
+    }
+    
+    public List<ScenarioResult> runAll(List<Scenario> scenarios, long seed) {
+        List<ScenarioResult> results = new ArrayList<>(scenarios.size());
+        for (Scenario scenario : scenarios) {
+            results.add(run(scenario, seed));
+        }
+        return results;
+    }
+    
+    static SimulationReport runOnce(Scenario scenario, SplittableRandom random) {
+        Company company = new Company(scenario.getName(), RUN_RETENTION);
+        company.setEventSink(EventSink.NO_OP);
+        addVehicles(company, VehicleType.TAXI, scenario.getTaxis(), random);
+        addVehicles(company, VehicleType.SHUTTLE, scenario.getShuttles(), random);
+        return new FleetSimulator(company, new PassengerSource(company, scenario.newDemandModel(), random))
+                .run(scenario.getRequests());
+    }
+    
+    private static void addVehicles(Company company, VehicleType type, int count, RandomGenerator random) {
+        for (int i = 0; i < count; i++) {
+            company.addVehicle(new Vehicle(type + "-" + i, type, "Driver " + i,
+                                           Location.of(random.nextInt(Location.GRID_SIZE), random.nextInt(Location.GRID_SIZE))));
+        }
+    }
+    
+    // Serializable only through ForkJoinTask; tasks are never serialized
+    private static final class RunTask extends RecursiveTask<ScenarioResult> {
+        private static final long serialVersionUID = 1L;
+        private final transient Scenario scenario;
+        private final transient SplittableRandom[] randoms;
+        private final int from;
+        private final int to;
+        
+        RunTask(Scenario scenario, SplittableRandom[] randoms, int from, int to) {
+            this.scenario = scenario;
+            this.randoms = randoms;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected ScenarioResult compute() {
+            if (to - from == 1) {
+                ScenarioResult result = new ScenarioResult(scenario);
+                result.add(runOnce(scenario, randoms[from]));
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            RunTask left = new RunTask(scenario, randoms, from, middle);
+            left.fork();
+            ScenarioResult right = new RunTask(scenario, randoms, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+}
+
+// =============================================================================
+// JUNIT TESTS FOR COMPANY CLASS
+// =============================================================================
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompanyTest {
+    private Company company;
+    private Vehicle taxi;
+    private Vehicle shuttle;
+    private Passenger passenger;
+    private Location pickupLocation;
+    private Location destinationLocation;
+    
+    @Before
+    public void setUp() {
+        company = new Company("BALEXTRANIT (U) LTD");
+        taxi = new Vehicle("UAB-123A", VehicleType.TAXI, "James Mukasa", new Location(10, 10));
+        shuttle = new Vehicle("UAB-456B", VehicleType.SHUTTLE, "Mary Nakato", new Location(20, 20));
+        passenger = new Passenger("Test Passenger", "+256701234567", 2);
+        pickupLocation = new Location(30, 30, "Kampala Road");
+        destinationLocation = new Location(40, 40, "Entebbe Airport");
+    }
+    
+    /**
+     * Test 1: Test successful vehicle scheduling when vehicles are available
+     */
+    @Test
+    public void testScheduleVehicle_Success() {
+        // Add vehicles to company fleet
+        company.addVehicle(taxi);
+        company.addVehicle(shuttle);
+        
+        // Schedule a vehicle for pickup
+        boolean result = company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+        
         // Verify successful scheduling
         assertTrue("Vehicle should be scheduled successfully", result);
         assertEquals("Should have 1 active trip", 1, company.getActiveTripsCount());
         assertEquals("Should have 0 lost fares", 0, company.getTotalLostFares());
         
-        // Verify vehicle status changed
-        assertFalse("Taxi should no longer be available", taxi.isAvailable());
-        assertNotNull("Taxi should have assigned trip", taxi.getCurrentTrip());
+        // Verify the nearest vehicle was dispatched
+        assertFalse("Shuttle is nearest and should no longer be available", shuttle.isAvailable());
+        assertNotNull("Shuttle should have assigned trip", shuttle.getCurrentTrip());
+        assertTrue("Taxi should remain available", taxi.isAvailable());
+        assertEquals("Should have 1 available vehicle", 1, company.getAvailableVehicleCount());
+        assertEquals("Taxi should be the only available vehicle", Arrays.asList(taxi), company.getAvailableVehicles());
     }
     
     /**
@@ -479,6 +4451,633 @@ public class CompanyTest {
         assertEquals("Should have 0 active trips", 0, company.getActiveTripsCount());
         assertEquals("Should have 1 lost fare", 1, company.getTotalLostFares());
     }
+    
+    /**
+     * Test 3: Test that dispatch skips nearer vehicles too small for the group
+     */
+    @Test
+    public void testScheduleVehicle_NearestWithEnoughCapacity() {
+        Vehicle nearTaxi = new Vehicle("UAB-789C", VehicleType.TAXI, "Peter Ssali", new Location(31, 31));
+        company.addVehicle(nearTaxi);
+        company.addVehicle(shuttle);
+        
+        Passenger group = new Passenger("Tour Group", "+256702345678", 6);
+        boolean result = company.scheduleVehicle(group, pickupLocation, destinationLocation);
+        
+        assertTrue("Shuttle should take the group of six", result);
+        assertFalse("Shuttle should no longer be available", shuttle.isAvailable());
+        assertTrue("Taxi is too small and should remain available", nearTaxi.isAvailable());
+    }
+    
+    /**
+     * Test 4: Test that concurrent dispatchers never double-book a vehicle
+     */
+    @Test
+    public void testScheduleVehicle_ConcurrentRequestsClaimEachVehicleOnce() throws InterruptedException {
+        int fleetSize = 20;
+        for (int i = 0; i < fleetSize; i++) {
+            company.addVehicle(new Vehicle("UAX-" + i, VehicleType.TAXI, "Driver " + i, new Location(i, i)));
+        }
+        
+        int threadCount = 8;
+        int requestsPerThread = 10;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int r = 0; r < requestsPerThread; r++) {
+                    company.scheduleVehicle(new Passenger("Rider", "+256701234567", 1), pickupLocation, destinationLocation);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        Set<Trip> assigned = new HashSet<>();
+        for (Vehicle vehicle : company.getFleet()) {
+            assertNotNull("Every vehicle should be booked", vehicle.getCurrentTrip());
+            assertSame("Vehicle and trip should agree", vehicle, vehicle.getCurrentTrip().getAssignedVehicle());
+            assigned.add(vehicle.getCurrentTrip());
+        }
+        assertEquals("Each vehicle should hold a distinct trip", fleetSize, assigned.size());
+        assertEquals("Should have one active trip per vehicle", fleetSize, company.getActiveTripsCount());
+        assertEquals("Remaining requests should be lost fares",
+                     threadCount * requestsPerThread - fleetSize, company.getTotalLostFares());
+    }
+    
+    /**
+     * Test 5: Test that driver notifications complete the trip and free the vehicle
+     */
+    @Test
+    public void testDriverNotifications_CompleteTrip() {
+        company.addVehicle(taxi);
+        company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+        Trip trip = taxi.getCurrentTrip();
+        
+        company.notifyArrivedAtPickup(taxi.getVehicleId());
+        assertEquals("Taxi should be picking up", VehicleStatus.PICKING_UP, taxi.getStatus());
+        
+        company.notifyDroppedOff(taxi.getVehicleId());
+        assertTrue("Trip should be completed", trip.isCompleted());
+        assertTrue("Wait time should be derived from the timestamps", trip.getWaitTimeNanos() >= 0);
+        assertTrue("Ride time should be derived from the timestamps", trip.getRideTimeNanos() >= 0);
+        assertEquals("Should have 0 active trips", 0, company.getActiveTripsCount());
+        assertEquals("Should have 1 completed trip", 1, company.getTotalCompletedTrips());
+        assertTrue("Taxi should be available again", taxi.isAvailable());
+        assertEquals("Taxi should wait at the destination", destinationLocation, taxi.getCurrentLocation());
+        
+        // Unknown vehicle ids are ignored
+        company.notifyDroppedOff(-1);
+        assertEquals("Should still have 1 completed trip", 1, company.getTotalCompletedTrips());
+    }
+    
+    /**
+     * Test 6: Test that batch dispatch keeps the shuttle for the group that needs it
+     */
+    @Test
+    public void testScheduleBatch_ServesSmallAndLargeGroups() {
+        company.addVehicle(taxi);
+        company.addVehicle(shuttle);
+        
+        // The single rider is closest to the shuttle; greedy dispatch would strand the group
+        Passenger rider = new Passenger("Single Rider", "+256703456789", 1);
+        Passenger group = new Passenger("Tour Group", "+256702345678", 6);
+        List<Trip> trips = company.scheduleBatch(Arrays.asList(
+            new PickupRequest(rider, new Location(21, 21), destinationLocation),
+            new PickupRequest(group, new Location(12, 12), destinationLocation)));
+        
+        assertSame("Taxi should carry the single rider", taxi, trips.get(0).getAssignedVehicle());
+        assertSame("Shuttle should carry the group", shuttle, trips.get(1).getAssignedVehicle());
+        assertEquals("Should have 2 active trips", 2, company.getActiveTripsCount());
+        assertEquals("Should have 0 lost fares", 0, company.getTotalLostFares());
+    }
+    
+    /**
+     * Test 7: Test that journaled trips are replayed into a restarted company
+     */
+    @Test
+    public void testTripJournal_ReplaysAfterRestart() throws IOException {
+        Path path = Files.createTempFile("trips", ".journal");
+        path.toFile().deleteOnExit();
+        
+        try (TripJournal journal = TripJournal.open(path)) {
+            company.setTripJournal(journal);
+            company.addVehicle(taxi);
+            company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+            company.scheduleVehicle(new Passenger("Late Rider", "+256704567890", 1), pickupLocation, destinationLocation);
+            company.notifyArrivedAtPickup(taxi.getVehicleId());
+            company.notifyDroppedOff(taxi.getVehicleId());
+        }
+        
+        Company restarted = new Company("BALEXTRANIT (U) LTD");
+        restarted.addVehicle(taxi);
+        try (TripJournal journal = TripJournal.open(path)) {
+            assertEquals("Should replay both trips", 2, journal.replay(restarted));
+        }
+        assertEquals("Should restore 1 completed trip", 1, restarted.getTotalCompletedTrips());
+        assertEquals("Should restore 1 lost fare", 1, restarted.getTotalLostFares());
+        Trip restored = restarted.getCompletedTrips().get(0);
+        assertEquals("Trip id should survive the restart",
+                     company.getCompletedTrips().get(0).getTripId(), restored.getTripId());
+        assertSame("Vehicle should be matched by id", taxi, restored.getAssignedVehicle());
+        assertEquals("Destination should survive the restart", destinationLocation, restored.getDestinationLocation());
+        assertTrue("Restored trip should be completed", restored.isCompleted());
+    }
+    
+    /**
+     * Test 8: Test that history beyond the retention limit is compacted into hourly totals
+     */
+    @Test
+    public void testRetentionPolicy_KeepsRecentTripsAndHourlyTotals() {
+        company = new Company("BALEXTRANIT (U) LTD", new RetentionPolicy(2, 60_000, 24));
+        company.addVehicle(taxi);
+        for (int i = 0; i < 3; i++) {
+            company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+            company.notifyArrivedAtPickup(taxi.getVehicleId());
+            company.notifyDroppedOff(taxi.getVehicleId());
+        }
+        
+        assertEquals("Should count all 3 completed trips", 3, company.getTotalCompletedTrips());
+        assertEquals("Should retain only the 2 latest trips", 2, company.getCompletedTrips().size());
+        long aggregated = 0;
+        for (HourlyTripStats hour : company.getCompletedTripStats()) {
+            aggregated += hour.getTrips();
+        }
+        assertEquals("Hourly totals should cover all 3 trips", 3, aggregated);
+        
+        List<Trip> retained = company.getCompletedTrips();
+        Trip oldest = retained.get(0);
+        company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+        company.notifyArrivedAtPickup(taxi.getVehicleId());
+        company.notifyDroppedOff(taxi.getVehicleId());
+        assertSame("An earlier snapshot should not change when trips are evicted", oldest, retained.get(0));
+        assertFalse("The oldest trip should now be evicted", company.getCompletedTrips().contains(oldest));
+    }
+    
+    /**
+     * Test 9: Test that the simulator runs every request to completion on simulated time
+     */
+    @Test
+    public void testFleetSimulator_CompletesAllServedRequests() {
+        company.addVehicle(taxi);
+        company.addVehicle(shuttle);
+        company.setEventSink(EventSink.NO_OP);
+        Random random = new Random(7);
+        FleetSimulator simulator = new FleetSimulator(company,
+                new PassengerSource(company, new UniformDemand(1.0 / 600), random));
+        
+        SimulationReport report = simulator.run(50);
+        
+        assertEquals("Should issue every request", 50, report.getRequests());
+        assertEquals("Every request should be served or lost", 50, report.getCompletedTrips() + report.getLostFares());
+        assertTrue("Some requests should be served", report.getCompletedTrips() > 0);
+        assertEquals("No trips should remain active", 0, company.getActiveTripsCount());
+        assertEquals("All vehicles should be available again", 2, company.getAvailableVehicleCount());
+        assertTrue("Simulated time should pass", report.getSimulatedNanos() > 0);
+        assertTrue("Utilisation should be a fraction", report.getUtilisation() > 0 && report.getUtilisation() <= 1);
+    }
+    
+    /**
+     * Test 10: Test that scenario results depend only on the seed, not on parallelism
+     */
+    @Test
+    public void testScenarioRunner_SameSeedSameResultsAtAnyParallelism() {
+        Scenario scenario = new Scenario("Small fleet", 3, 1, 200, 1.0 / 120);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            ScenarioResult sequential = new ScenarioRunner(8, single).run(scenario, 99);
+            ScenarioResult parallel = new ScenarioRunner(8, several).run(scenario, 99);
+            
+            assertEquals("Should merge every run", 8, parallel.getRuns());
+            for (double p : new double[] {0, 50, 100}) {
+                assertEquals("Lost fare distribution should match", sequential.getLostFareRates().getPercentile(p),
+                             parallel.getLostFareRates().getPercentile(p), 0.0);
+                assertEquals("Utilisation distribution should match", sequential.getUtilisations().getPercentile(p),
+                             parallel.getUtilisations().getPercentile(p), 0.0);
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+    
+    /**
+     * Test 11: Test that seeded demand repeats and that traces replay row by row
+     */
+    @Test
+    public void testDemandModels_SeededAndTraceReplay() throws IOException {
+        DemandModel hotspots = new HotspotDemand(2.0, List.of(new Hotspot(Location.of(50, 50), 3, 1)), 0);
+        PassengerSource first = new PassengerSource(company, hotspots, new SplittableRandom(5));
+        PassengerSource second = new PassengerSource(company, hotspots, new SplittableRandom(5));
+        for (int i = 0; i < 20; i++) {
+            PickupRequest a = first.nextRequest();
+            PickupRequest b = second.nextRequest();
+            assertSame("Same seed should give the same pickup", a.getPickupLocation(), b.getPickupLocation());
+            assertEquals("Same seed should give the same gap", first.getLastArrivalGapNanos(), second.getLastArrivalGapNanos());
+            assertTrue("Pickup should be near the hotspot", a.getPickupLocation().distanceTo(Location.of(50, 50)) < 20);
+        }
+        
+        Path path = Files.createTempFile("pickups", ".csv");
+        path.toFile().deleteOnExit();
+        Files.write(path, Arrays.asList("time_ms,pickup_x,pickup_y,dest_x,dest_y,group",
+                                        "1000,10,10,40,40,2",
+                                        "4000,30,30,40,40,5"));
+        PassengerSource replay = new PassengerSource(company, TraceDemand.load(path, false), new SplittableRandom(1));
+        PickupRequest row = replay.nextRequest();
+        assertEquals("First row pickup", Location.of(10, 10), row.getPickupLocation());
+        row = replay.nextRequest();
+        assertEquals("Second row group size", 5, row.getPassenger().getGroupSize());
+        assertEquals("Gap should follow the trace", 3_000_000_000L, replay.getLastArrivalGapNanos());
+        assertNull("Trace should be exhausted", replay.nextRequest());
+    }
+    
+    /**
+     * Test 12: Test that ingested requests all complete through a small queue, each vehicle claimed once
+     */
+    @Test
+    public void testRequestIngestor_CompletesEveryRequest() {
+        company.addVehicle(taxi);
+        company.addVehicle(shuttle);
+        company.setEventSink(EventSink.NO_OP);
+        List<CompletableFuture<Trip>> futures = new ArrayList<>();
+        try (RequestIngestor ingestor = new RequestIngestor(company, 8, 10_000)) {
+            for (int i = 0; i < 500; i++) {
+                futures.add(ingestor.submit(new Passenger("Rider " + i, "+256701234567", 1),
+                                            pickupLocation, destinationLocation));
+            }
+        }
+        
+        Set<Vehicle> assigned = new HashSet<>();
+        for (CompletableFuture<Trip> future : futures) {
+            assertTrue("Every request should be done once the ingestor closes", future.isDone());
+            Vehicle vehicle = future.join().getAssignedVehicle();
+            if (vehicle != null) {
+                assertTrue("No vehicle should be assigned twice", assigned.add(vehicle));
+            }
+        }
+        assertEquals("Both vehicles should be assigned", 2, assigned.size());
+        assertEquals("The rest should be lost fares", 498, company.getTotalLostFares());
+    }
+    
+    /**
+     * Test 13: Test that unmatched requests wait for a freed vehicle and are lost only after their deadline
+     */
+    @Test
+    public void testPendingRequests_ServedOnDropOffOrLostAfterDeadline() {
+        SimulationClock clock = new SimulationClock(1_000_000_000L);
+        company.setTimeSource(clock);
+        company.setMaxPendingWaitMillis(60_000);
+        company.addVehicle(taxi);
+        
+        assertTrue("First request should get the taxi", company.scheduleVehicle(passenger, pickupLocation, destinationLocation));
+        Passenger waiting = new Passenger("Waiting Rider", "+256702345678", 2);
+        assertFalse("Second request should wait", company.scheduleVehicle(waiting, pickupLocation, destinationLocation));
+        assertEquals("Second request should be pending", 1, company.getPendingRequestCount());
+        assertEquals("Nothing should be lost yet", 0, company.getTotalLostFares());
+        
+        clock.advanceTo(clock.epochNanos() + 30_000_000_000L);
+        company.notifyArrivedAtPickup(taxi.getVehicleId());
+        company.notifyDroppedOff(taxi.getVehicleId());
+        assertSame("Freed taxi should go straight to the waiting rider", waiting, taxi.getCurrentTrip().getPassenger());
+        assertEquals("Taxi should head to the pickup", VehicleStatus.EN_ROUTE_TO_PICKUP, taxi.getStatus());
+        assertEquals("Queue should be empty", 0, company.getPendingRequestCount());
+        
+        company.scheduleVehicle(new Passenger("Late Rider", "+256703456789", 1), pickupLocation, destinationLocation);
+        clock.advanceTo(clock.epochNanos() + 61_000_000_000L);
+        company.expirePendingRequests();
+        assertEquals("Late request should be lost after its deadline", 1, company.getTotalLostFares());
+        assertEquals("Queue should be empty", 0, company.getPendingRequestCount());
+    }
+    
+    /**
+     * Test 14: Test that a shuttle picks up a second group on its way and serves both stops in route order
+     */
+    @Test
+    public void testRidePooling_SharesShuttleWithinDetourLimit() {
+        company.setRidePooling(true);
+        company.addVehicle(shuttle);
+        
+        Trip first = company.scheduleTrip(passenger, pickupLocation, destinationLocation);
+        Passenger sharing = new Passenger("Sharing Rider", "+256702345678", 3);
+        Trip second = company.scheduleTrip(sharing, new Location(32, 32), new Location(38, 38));
+        assertSame("Second group should share the shuttle", shuttle, second.getAssignedVehicle());
+        assertSame("Shuttle should still head for the first pickup", first, shuttle.getCurrentTrip());
+        Trip far = company.scheduleTrip(new Passenger("Far Rider", "+256703456789", 1),
+                                        new Location(90, 90), new Location(95, 95));
+        assertNull("A long detour should not be pooled", far.getAssignedVehicle());
+        
+        company.notifyArrivedAtPickup(shuttle.getVehicleId());
+        assertEquals("First group should be aboard", 2, shuttle.getPassengersAboard());
+        Stop next = shuttle.getNextStop();
+        assertTrue("Next stop should be the second pickup", next.isPickup() && next.getTrip() == second);
+        company.notifyArrivedAtPickup(shuttle.getVehicleId());
+        assertEquals("Both groups should be aboard", 5, shuttle.getPassengersAboard());
+        
+        company.notifyDroppedOff(shuttle.getVehicleId());
+        assertTrue("Shorter trip should be dropped off first", second.isCompleted() && !first.isCompleted());
+        assertEquals("Shuttle should carry on with the first group", VehicleStatus.TRANSPORTING, shuttle.getStatus());
+        company.notifyDroppedOff(shuttle.getVehicleId());
+        assertEquals("Both trips should be completed", 2, company.getTotalCompletedTrips());
+        assertEquals("Shuttle should be available again", VehicleStatus.AVAILABLE, shuttle.getStatus());
+        assertNull("Shuttle should have no stops left", shuttle.getNextStop());
+    }
+    
+    /**
+     * Test 15: Test that the metrics snapshot reports trip timings, time per status and utilisation
+     */
+    @Test
+    public void testMetricsSnapshot_TimesTripsAndVehicleStatuses() throws IOException {
+        SimulationClock clock = new SimulationClock(1_000_000_000L);
+        company.setTimeSource(clock);
+        company.addVehicle(taxi);
+        
+        company.scheduleVehicle(passenger, pickupLocation, destinationLocation);
+        company.scheduleVehicle(new Passenger("Second Rider", "+256702345678", 1), pickupLocation, destinationLocation);
+        clock.advanceTo(clock.epochNanos() + 60_000_000_000L);
+        company.notifyArrivedAtPickup(taxi.getVehicleId());
+        clock.advanceTo(clock.epochNanos() + 120_000_000_000L);
+        company.notifyDroppedOff(taxi.getVehicleId());
+        clock.advanceTo(clock.epochNanos() + 180_000_000_000L);
+        
+        MetricsSnapshot metrics = company.snapshotMetrics();
+        assertEquals("Both requests should be counted", 2, metrics.getRequests());
+        assertEquals("One trip should be completed", 1, metrics.getCompletedTrips());
+        assertEquals("One fare should be lost", 1, metrics.getLostFares());
+        assertEquals("Wait should be 60s within histogram precision", 60e9,
+                     metrics.getWaitTimes().getValueAtPercentile(50), 60e9 / 32);
+        assertEquals("Ride should be 120s within histogram precision", 120e9,
+                     metrics.getRideTimes().getValueAtPercentile(99), 120e9 / 32);
+        assertEquals("Taxi should be en route for 60s", 60_000_000_000L,
+                     metrics.getStatusNanos(VehicleType.TAXI, VehicleStatus.EN_ROUTE_TO_PICKUP));
+        assertEquals("Taxi should be idle for the last 180s", 180_000_000_000L,
+                     metrics.getStatusNanos(VehicleType.TAXI, VehicleStatus.AVAILABLE));
+        assertEquals("Taxi should be busy half the time", 0.5, metrics.getUtilisation(VehicleType.TAXI), 1e-9);
+        
+        Path file = Files.createTempFile("metrics", ".prom");
+        try {
+            metrics.writePrometheusFile(file);
+            String text = Files.readString(file);
+            assertTrue("Export should hold the counters", text.contains("balextranit_trips_completed_total 1\n"));
+            assertTrue("Export should hold utilisation per type",
+                       text.contains("balextranit_vehicle_utilisation{type=\"TAXI\"} 0.5\n"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    /**
+     * Test 16: Test that racing claims and trip completions leave the fleet indexes matching the vehicle's status
+     */
+    @Test
+    public void testStatusChanges_RacingClaimsKeepIndexesConsistent() throws InterruptedException {
+        company.addVehicle(taxi);
+        Trip trip = new Trip(passenger, pickupLocation, destinationLocation);
+        
+        for (int round = 0; round < 20; round++) {
+            Thread claimer = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    taxi.tryAssignTrip(trip);
+                }
+            });
+            Thread completer = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    taxi.completeTrip();
+                }
+            });
+            claimer.start();
+            completer.start();
+            claimer.join();
+            completer.join();
+            
+            boolean available = taxi.isAvailable();
+            assertEquals("Available count should match the taxi's status in round " + round,
+                         available ? 1 : 0, company.getAvailableVehicleCount());
+            assertEquals("Available list should match the taxi's status in round " + round,
+                         available, company.getAvailableVehicles().contains(taxi));
+            taxi.completeTrip();
+        }
+        assertTrue("A free taxi should be found by the spatial index",
+                   company.scheduleVehicle(passenger, pickupLocation, destinationLocation));
+        assertEquals("The claimed taxi should leave the index", 0, company.getAvailableVehicleCount());
+    }
+    
+    /**
+     * Test 17: Test that the fleet store's available bits follow the latest status, however often it is repeated
+     */
+    @Test
+    public void testFleetStore_AvailabilityFollowsLatestStatus() {
+        FleetStore store = new FleetStore();
+        store.add(taxi);
+        store.add(shuttle);
+        
+        store.updateStatus(taxi, VehicleStatus.AVAILABLE);
+        store.updateStatus(taxi, VehicleStatus.AVAILABLE);
+        assertEquals("A repeated AVAILABLE should count the taxi once", 2, store.availableCount());
+        
+        store.updateStatus(taxi, VehicleStatus.EN_ROUTE_TO_PICKUP);
+        store.updateStatus(taxi, VehicleStatus.MAINTENANCE);
+        assertEquals("Only the shuttle should be available", 1, store.availableCount());
+        assertEquals("Taxi should be counted out of its type", 0, store.availableCount(VehicleType.TAXI));
+        assertEquals("Only the shuttle should be listed", Arrays.asList(shuttle), store.availableVehicles());
+        
+        store.updateStatus(taxi, VehicleStatus.AVAILABLE);
+        assertEquals("Taxi should be available again", 1, store.availableCount(VehicleType.TAXI));
+    }
+    
+    /**
+     * Test 18: Test that submit rejects at once past the in-flight limit and stale requests are shed
+     */
+    @Test
+    public void testRequestIngestor_RejectsPastInFlightLimitAndShedsStaleRequests() throws InterruptedException {
+        CountDownLatch dispatching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        company.setEventSink((type, timestamp, tripId, vehicleId, passengerId, x, y) -> {
+            dispatching.countDown();
+            try {
+                release.await(); // Holds the dispatcher so the queue stays full
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CompletableFuture<Trip> first;
+        CompletableFuture<Trip> queued;
+        CompletableFuture<Trip> parked;
+        CompletableFuture<Trip> overflow;
+        try (RequestIngestor ingestor = new RequestIngestor(company, 1, 1, 100)) {
+            first = ingestor.submit(passenger, pickupLocation, destinationLocation);
+            assertTrue("Dispatcher should take the first request", dispatching.await(10, TimeUnit.SECONDS));
+            while (ingestor.getInFlightCount() > 0) {
+                Thread.sleep(1); // Until the first request's virtual thread gives back its permit
+            }
+            queued = ingestor.submit(passenger, pickupLocation, destinationLocation);
+            while (ingestor.getQueuedCount() == 0 || ingestor.getInFlightCount() > 0) {
+                Thread.sleep(1); // Until its virtual thread has filled the queue
+            }
+            parked = ingestor.submit(passenger, pickupLocation, destinationLocation); // Holds the only permit
+            overflow = ingestor.submit(passenger, pickupLocation, destinationLocation);
+            
+            assertTrue("Overflow should be rejected without waiting", overflow.isCompletedExceptionally());
+            assertFalse("Parked request should still be pending", parked.isDone());
+            assertEquals("Only the overflow should be rejected so far", 1, ingestor.getRejectedCount());
+            Thread.sleep(200); // Past the 100 ms wait
+            release.countDown();
+        }
+        assertNull("First request should be served, as a lost fare", first.join().getAssignedVehicle());
+        for (CompletableFuture<Trip> future : Arrays.asList(overflow, queued, parked)) {
+            try {
+                future.join();
+                fail("Request should not be served");
+            } catch (CompletionException e) {
+                assertTrue("Request should fail with a rejection", e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+    }
+    
+    /**
+     * Test 19: Test that an Error while scheduling fails only that request and the dispatcher carries on
+     */
+    @Test
+    public void testRequestIngestor_SurvivesErrorInScheduling() {
+        company.addVehicle(taxi);
+        boolean[] thrown = {false};
+        company.setEventSink((type, timestamp, tripId, vehicleId, passengerId, x, y) -> {
+            if (!thrown[0]) {
+                thrown[0] = true;
+                throw new StackOverflowError("Simulated failure");
+            }
+        });
+        CompletableFuture<Trip> failed;
+        CompletableFuture<Trip> next;
+        try (RequestIngestor ingestor = new RequestIngestor(company, 8, 10_000)) {
+            failed = ingestor.submit(passenger, pickupLocation, destinationLocation);
+            next = ingestor.submit(new Passenger("Second Rider", "+256702345678", 1), pickupLocation, destinationLocation);
+        }
+        
+        assertTrue("First request should fail", failed.isCompletedExceptionally());
+        try {
+            failed.join();
+            fail("First request should not be served");
+        } catch (CompletionException e) {
+            assertTrue("The Error should reach the caller", e.getCause() instanceof StackOverflowError);
+        }
+        assertTrue("Second request should still be scheduled", next.isDone() && !next.isCompletedExceptionally());
+    }
+    
+    /**
+     * Test 20: Test that a vehicle returning from maintenance serves a request that queued meanwhile
+     */
+    @Test
+    public void testPendingRequests_ServedWhenVehicleLeavesMaintenance() {
+        company.setMaxPendingWaitMillis(60_000);
+        company.addVehicle(taxi);
+        taxi.setStatus(VehicleStatus.MAINTENANCE);
+        
+        assertFalse("Request should wait while the taxi is in maintenance",
+                    company.scheduleVehicle(passenger, new Location(12, 12), destinationLocation));
+        assertEquals("Request should be pending", 1, company.getPendingRequestCount());
+        
+        taxi.setStatus(VehicleStatus.AVAILABLE);
+        assertSame("Returning taxi should take the waiting rider", passenger, taxi.getCurrentTrip().getPassenger());
+        assertEquals("Taxi should head to the pickup", VehicleStatus.EN_ROUTE_TO_PICKUP, taxi.getStatus());
+        assertEquals("Queue should be empty", 0, company.getPendingRequestCount());
+        assertEquals("Taxi should not be left in the available index", 0, company.getAvailableVehicleCount());
+        assertEquals("Trip should be active", 1, company.getActiveTripsCount());
+    }
+    
+    /**
+     * Test 21: Test that a far request at the head of its queue does not hide a nearer one behind it
+     */
+    @Test
+    public void testPendingRequests_NearerRequestBehindFarHeadIsServed() {
+        PendingRequests pending = new PendingRequests();
+        Trip far = new Trip(passenger, new Location(90, 90), destinationLocation, 1);
+        Trip near = new Trip(passenger, new Location(12, 14), destinationLocation, 2);
+        pending.add(far);
+        pending.add(near);
+        
+        assertSame("Vehicle should take the request in reach", near, pending.pollFor(4, new Location(10, 10)));
+        assertEquals("Far request should still wait", 1, pending.size());
+        assertSame("Far request should stay at the head for expiry", far, pending.pollExpired(1));
+        assertNull("Served request should not expire again", pending.pollExpired(Long.MAX_VALUE));
+        assertEquals("Queue should be empty", 0, pending.size());
+    }
+    
+    /**
+     * Test 22: Test that with nothing in reach a vehicle takes the longest waiting request it can seat
+     */
+    @Test
+    public void testPendingRequests_FallsBackToOldestWhenNoneInReach() {
+        PendingRequests pending = new PendingRequests();
+        Trip older = new Trip(new Passenger("Older Rider", "+256702345678", 1), new Location(90, 90), destinationLocation, 1);
+        Trip newer = new Trip(passenger, new Location(80, 80), destinationLocation, 2);
+        Trip tooLarge = new Trip(new Passenger("Large Group", "+256703456789", 6), new Location(70, 70), destinationLocation, 0);
+        pending.add(newer);
+        pending.add(tooLarge);
+        pending.add(older);
+        
+        assertSame("Taxi should take the oldest group it can seat", older, pending.pollFor(4, new Location(10, 10)));
+        pending.addFirst(older); // Claim failed; it keeps its place
+        assertSame("Returned request should be first again", older, pending.pollFor(4, new Location(10, 10)));
+        assertSame("Then the next oldest it can seat", newer, pending.pollFor(4, new Location(10, 10)));
+        assertNull("Taxi cannot seat the large group", pending.pollFor(4, new Location(10, 10)));
+        assertSame("Shuttle can", tooLarge, pending.pollFor(14, new Location(10, 10)));
+    }
+    
+    /**
+     * Test 23: Test that the ingestor needs a positive wait, since a zero wait would shed every request
+     */
+    @Test
+    public void testRequestIngestor_RejectsZeroWait() {
+        try {
+            new RequestIngestor(company, 8, 0).close();
+            fail("Zero wait should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue("Message should name the wait", e.getMessage().contains("wait"));
+        }
+    }
+    
+    /**
+     * Test 24: Test that a lone request in a dispatch window is scheduled by the timer once the window ends
+     */
+    @Test
+    public void testDispatchWindow_LoneRequestDispatchedWhenWindowEnds() throws Exception {
+        company.addVehicle(taxi);
+        try (DispatchWindow window = new DispatchWindow(company, 50, 10)) {
+            long start = System.nanoTime();
+            CompletableFuture<Trip> future = window.submit(new PickupRequest(passenger, pickupLocation, destinationLocation));
+            assertFalse("Request should wait for the window", future.isDone());
+            
+            Trip trip = future.get(10, TimeUnit.SECONDS);
+            long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertSame("Taxi should be assigned", taxi, trip.getAssignedVehicle());
+            assertTrue("Request should wait out the window, waited " + waitedMillis + " ms", waitedMillis >= 50);
+            assertEquals("Nothing should be left pending", 0, window.getPendingCount());
+            
+            CompletableFuture<Trip> second = window.submit(new PickupRequest(
+                    new Passenger("Second Rider", "+256702345678", 1), pickupLocation, destinationLocation));
+            window.flush();
+            assertTrue("A flush should schedule at once", second.isDone());
+            assertNull("No vehicle should be left", second.join().getAssignedVehicle());
+        }
+    }
+    
+    /**
+     * Test 25: Test that vehicles added in bulk are indexed like vehicles added one by one
+     */
+    @Test
+    public void testAddVehicles_IndexesEveryVehicle() {
+        shuttle.setStatus(VehicleStatus.MAINTENANCE);
+        company.addVehicles(List.of(taxi, shuttle));
+        
+        assertEquals("Both vehicles should be in the fleet", List.of(taxi, shuttle), company.getFleet());
+        assertSame("Shuttle should be found by id", shuttle, company.findVehicleById(shuttle.getVehicleId()));
+        assertEquals("Only the taxi should be available", List.of(taxi), company.getAvailableVehicles());
+        
+        shuttle.setStatus(VehicleStatus.AVAILABLE);
+        assertEquals("Shuttle should be available once back", 2, company.getAvailableVehicles().size());
+    }
 }
 
 // =============================================================================
@@ -519,7 +5118,7 @@ public class BalextranltDemo {
         // Show final statistics
         System.out.println("\n=== Final Statistics ===");
         System.out.println(company);
-        System.out.printf("Available vehicles: %d%n", company.getAvailableVehicles().size());
+        System.out.printf("Available vehicles: %d%n", company.getAvailableVehicleCount());
         System.out.printf("Lost fares: %d%n", company.getTotalLostFares());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package balextranit;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast each demand model generates requests, raw and as full
+ * PickupRequests from a PassengerSource, in nanoseconds per request
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DemandBenchmark {
+    @Param({"uniform", "hotspots", "timeOfDay"})
+    public String model;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final DemandSample sample = new DemandSample();
+    private DemandModel demand;
+    private PassengerSource source;
+
+    @Setup
+    public void setUp() {
+        double[] commuterDay = new double[24];
+        for (int hour = 0; hour < 24; hour++) {
+            commuterDay[hour] = hour == 7 || hour == 8 || hour == 17 || hour == 18 ? 3.0 : hour < 6 ? 0.2 : 1.0;
+        }
+        HotspotDemand hotspots = new HotspotDemand(1.0, List.of(
+                new Hotspot(Location.of(50, 50), 5, 3),   // City centre
+                new Hotspot(Location.of(20, 80), 8, 1),   // Taxi park
+                new Hotspot(Location.of(90, 10), 4, 1)),  // Airport road
+                0.2);
+        demand = switch (model) {
+            case "uniform" -> new UniformDemand(1.0);
+            case "hotspots" -> hotspots;
+            case "timeOfDay" -> new TimeOfDayDemand(commuterDay, 0, hotspots);
+            default -> throw new IllegalArgumentException("Unknown demand model: " + model);
+        };
+        source = new PassengerSource(new Company("Benchmark"), demand, new SplittableRandom(42));
+    }
+
+    @Benchmark
+    public int sample() {
+        demand.next(random, sample);
+        return sample.pickupX + sample.destinationY;
+    }
+
+    @Benchmark
+    public Object nextRequest() {
+        return source.nextRequest();
+    }
+}
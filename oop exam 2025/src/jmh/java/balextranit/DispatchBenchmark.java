@@ -0,0 +1,99 @@
+package balextranit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares per-request dispatch with batch dispatch on identical request
+ * streams for a mixed taxi/shuttle fleet, in nanoseconds per request. Each
+ * call dispatches one burst sized to the fleet, and every vehicle finishes
+ * its trip before the next burst; lostFares counts the requests the
+ * measured bursts could not serve.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int FLEET_SIZE = 200;
+    private static final int BATCH_SIZE = FLEET_SIZE; // One burst sized to the fleet
+
+    @State(Scope.Thread)
+    public static class Burst {
+        Company company;
+        PassengerSource source;
+        List<PickupRequest> requests = new ArrayList<>(BATCH_SIZE);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            company = new Company("Benchmark");
+            company.setEventSink(EventSink.NO_OP);
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                VehicleType type = i % 4 == 0 ? VehicleType.SHUTTLE : VehicleType.TAXI;
+                company.addVehicle(new Vehicle("BEN-" + i, type, "Driver " + i,
+                                               new Location(random.nextInt(101), random.nextInt(101))));
+            }
+            source = new PassengerSource(company, random);
+        }
+
+        @Setup(Level.Invocation)
+        public void nextBurst() {
+            requests.clear();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                requests.add(source.nextRequest());
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void dropOffAll() {
+            for (Vehicle vehicle : company.getFleet()) {
+                company.notifyDroppedOff(vehicle.getVehicleId());
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long lostFares;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void perRequest(Burst burst, Outcome outcome) {
+        for (PickupRequest request : burst.requests) {
+            if (!burst.company.scheduleVehicle(request.getPassenger(), request.getPickupLocation(),
+                                               request.getDestinationLocation())) {
+                outcome.lostFares++;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void batch(Burst burst, Outcome outcome) {
+        for (Trip trip : burst.company.scheduleBatch(burst.requests)) {
+            if (trip.getAssignedVehicle() == null) {
+                outcome.lostFares++;
+            }
+        }
+    }
+}
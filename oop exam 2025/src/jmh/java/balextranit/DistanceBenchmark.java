@@ -0,0 +1,87 @@
+package balextranit;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the original pow-based distance with distanceTo, the squared
+ * fast path and the bulk kernel over packed coordinates, in nanoseconds
+ * per distance
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+    private static final int POINTS = 100_000;
+
+    private final Location pickup = new Location(50, 50);
+    private Location[] locations;
+    private int[] packedXY;
+    private long[] out;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        locations = new Location[POINTS];
+        packedXY = new int[2 * POINTS];
+        out = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            locations[i] = new Location(random.nextInt(101), random.nextInt(101));
+            packedXY[2 * i] = locations[i].getX();
+            packedXY[2 * i + 1] = locations[i].getY();
+        }
+    }
+
+    /** Math.pow and sqrt, as distanceTo was originally written */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double powDistance() {
+        double sum = 0;
+        for (Location location : locations) {
+            sum += Math.sqrt(Math.pow(pickup.getX() - location.getX(), 2)
+                           + Math.pow(pickup.getY() - location.getY(), 2));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double distanceTo() {
+        double sum = 0;
+        for (Location location : locations) {
+            sum += pickup.distanceTo(location);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public long distanceSquaredTo() {
+        long sum = 0;
+        for (Location location : locations) {
+            sum += pickup.distanceSquaredTo(location);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public long[] distancesSquared() {
+        Location.distancesSquared(pickup.getX(), pickup.getY(), packedXY, POINTS, out);
+        return out;
+    }
+}
@@ -0,0 +1,83 @@
+package balextranit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares availability scans over the object fleet with the same scans over
+ * FleetStore's bitsets, for a large fleet spread across the heap, in
+ * microseconds per scan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FleetScanBenchmark {
+    @Param({"100000"})
+    public int fleetSize;
+
+    private List<Vehicle> fleet;
+    private FleetStore store;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        fleet = new ArrayList<>(fleetSize);
+        for (int i = 0; i < fleetSize; i++) {
+            VehicleType type = i % 4 == 0 ? VehicleType.SHUTTLE : VehicleType.TAXI;
+            fleet.add(new Vehicle("SCN-" + i, type, "Driver " + i,
+                                  new Location(random.nextInt(1001), random.nextInt(1001))));
+        }
+        // Shuffle so list order no longer matches allocation order, as in a long-running fleet
+        Collections.shuffle(fleet, random);
+        store = new FleetStore();
+        for (Vehicle vehicle : fleet) {
+            if (random.nextInt(3) == 0) {
+                vehicle.setStatus(VehicleStatus.TRANSPORTING);
+            }
+            store.add(vehicle);
+        }
+    }
+
+    @Benchmark
+    public long objectAvailableCount() {
+        return fleet.stream().filter(Vehicle::isAvailable).count();
+    }
+
+    @Benchmark
+    public int storeAvailableCount() {
+        return store.availableCount();
+    }
+
+    @Benchmark
+    public int objectAvailableList() {
+        List<Vehicle> available = new ArrayList<>();
+        for (Vehicle vehicle : fleet) {
+            if (vehicle.isAvailable()) {
+                available.add(vehicle);
+            }
+        }
+        return available.size();
+    }
+
+    @Benchmark
+    public int storeAvailableList() {
+        return store.availableVehicles().size();
+    }
+}
@@ -0,0 +1,175 @@
+package balextranit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the dispatch hot paths for every combination of fleet size and
+ * share of vehicles available: scheduleVehicle, notifyDroppedOff,
+ * findVehicleById, getAvailableVehicles, Location.distanceTo and
+ * PassengerSource.requestPickup. Vehicles not available are put into
+ * maintenance. The paths that claim or free a vehicle undo it in a
+ * per-invocation fixture, so every call sees the same availability; JMH
+ * then times each call on its own, which adds a few tens of nanoseconds
+ * of timer overhead to those rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class HotPathBenchmark {
+    private static final int LOOKUPS = 1 << 16; // Random ids and locations cycled through
+    private static final Location PICKUP = Location.of(50, 50);
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"10", "1000", "100000", "1000000"})
+        public int fleetSize;
+
+        @Param({"1.0", "0.5", "0.1"})
+        public double availability;
+
+        Company company;
+        PassengerSource source;
+        int[] ids;
+        Location[] locations;
+        int lastAssigned; // Vehicle of the last trip scheduled, noted by the event sink
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(42);
+            company = new Company("Benchmark");
+            company.setEventSink((type, timestamp, tripId, vehicleId, passengerId, x, y) -> {
+                if (type == DispatchEventType.TRIP_SCHEDULED) {
+                    lastAssigned = vehicleId;
+                }
+            });
+            int available = Math.max(1, (int) Math.ceil(fleetSize * availability));
+            List<Vehicle> vehicles = new ArrayList<>(fleetSize);
+            for (int i = 0; i < fleetSize; i++) {
+                VehicleType type = i % 4 == 0 ? VehicleType.SHUTTLE : VehicleType.TAXI;
+                Vehicle vehicle = new Vehicle("HOT-" + i, type, "Driver " + i,
+                                              Location.of(random.nextInt(Location.GRID_SIZE), random.nextInt(Location.GRID_SIZE)));
+                if (i >= available) {
+                    vehicle.setStatus(VehicleStatus.MAINTENANCE);
+                }
+                vehicles.add(vehicle);
+            }
+            company.addVehicles(vehicles);
+            source = new PassengerSource(company, new SplittableRandom(7));
+            ids = new int[LOOKUPS];
+            locations = new Location[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                Vehicle vehicle = vehicles.get(random.nextInt(fleetSize));
+                ids[i] = vehicle.getVehicleId();
+                locations[i] = vehicle.getCurrentLocation();
+            }
+        }
+
+        /** Frees the vehicle of the last trip scheduled, if there was one */
+        void release() {
+            if (lastAssigned != 0) {
+                company.notifyDroppedOff(lastAssigned);
+                lastAssigned = 0;
+            }
+        }
+    }
+
+    /** The next request, generated outside the timed call; its vehicle is freed after it */
+    @State(Scope.Thread)
+    public static class Request {
+        PickupRequest next;
+
+        @Setup(Level.Invocation)
+        public void next(Fleet fleet) {
+            next = fleet.source.nextRequest();
+        }
+
+        @TearDown(Level.Invocation)
+        public void release(Fleet fleet) {
+            fleet.release();
+        }
+    }
+
+    /** A trip scheduled outside the timed call, for the drop-off to complete */
+    @State(Scope.Thread)
+    public static class ScheduledTrip {
+        @Setup(Level.Invocation)
+        public void schedule(Fleet fleet) {
+            PickupRequest request = fleet.source.nextRequest();
+            fleet.company.scheduleVehicle(request.getPassenger(), request.getPickupLocation(),
+                                          request.getDestinationLocation());
+        }
+    }
+
+    /** Freed after each requestPickup, which generates its own request */
+    @State(Scope.Thread)
+    public static class Pickup {
+        @TearDown(Level.Invocation)
+        public void release(Fleet fleet) {
+            fleet.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (LOOKUPS - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public boolean scheduleVehicle(Fleet fleet, Request request) {
+        PickupRequest next = request.next;
+        return fleet.company.scheduleVehicle(next.getPassenger(), next.getPickupLocation(),
+                                             next.getDestinationLocation());
+    }
+
+    @Benchmark
+    public int notifyDroppedOff(Fleet fleet, ScheduledTrip trip) {
+        int vehicleId = fleet.lastAssigned;
+        fleet.company.notifyDroppedOff(vehicleId);
+        fleet.lastAssigned = 0;
+        return vehicleId;
+    }
+
+    @Benchmark
+    public Object findVehicleById(Fleet fleet, Cursor cursor) {
+        return fleet.company.findVehicleById(fleet.ids[cursor.advance()]);
+    }
+
+    /** Copies the available fleet, so grows with fleet size and availability */
+    @Benchmark
+    public Object getAvailableVehicles(Fleet fleet) {
+        return fleet.company.getAvailableVehicles();
+    }
+
+    @Benchmark
+    public double distanceTo(Fleet fleet, Cursor cursor) {
+        return PICKUP.distanceTo(fleet.locations[cursor.advance()]);
+    }
+
+    @Benchmark
+    public boolean requestPickup(Fleet fleet, Pickup pickup) {
+        return fleet.source.requestPickup();
+    }
+}
@@ -0,0 +1,80 @@
+package balextranit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Submits a flood of concurrent requests through a RequestIngestor, in
+ * milliseconds from the first submit until all are scheduled, and reports
+ * how many requests were assigned or rejected over the measured floods
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestionBenchmark {
+    private static final int FLEET_SIZE = 1000;
+    private static final int REQUESTS = 200_000;
+
+    private Company company;
+    private List<PickupRequest> requests;
+    private List<CompletableFuture<Trip>> futures;
+
+    /** Outcome of the measured floods, summed */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long assigned;
+        public long rejected;
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        company = new Company("Benchmark");
+        company.setEventSink(EventSink.NO_OP);
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            company.addVehicle(new Vehicle("ING-" + i, VehicleType.TAXI, "Driver " + i,
+                                           Location.of(random.nextInt(Location.GRID_SIZE), random.nextInt(Location.GRID_SIZE))));
+        }
+        PassengerSource source = new PassengerSource(company, random);
+        requests = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            requests.add(source.nextRequest());
+        }
+        futures = new ArrayList<>(REQUESTS);
+    }
+
+    @Benchmark
+    public void flood(Outcome outcome) {
+        // Room for the whole burst and a generous wait, so it measures throughput rather than load shedding
+        RequestIngestor ingestor = new RequestIngestor(company, RequestIngestor.DEFAULT_QUEUE_CAPACITY, REQUESTS, 60_000);
+        try {
+            for (PickupRequest request : requests) {
+                futures.add(ingestor.submit(request));
+            }
+        } finally {
+            ingestor.close();
+        }
+        outcome.assigned += futures.stream()
+                .filter(f -> !f.isCompletedExceptionally() && f.join().getAssignedVehicle() != null).count();
+        outcome.rejected += ingestor.getRejectedCount();
+    }
+}
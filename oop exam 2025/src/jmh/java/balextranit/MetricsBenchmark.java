@@ -0,0 +1,74 @@
+package balextranit;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times recording into a LatencyHistogram, the cost metrics add on the
+ * dispatch hot path, in nanoseconds, and taking and exporting a snapshot
+ * of a large fleet, in microseconds
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private static final int FLEET_SIZE = 100_000;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private Company company;
+    private MetricsSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        company = new Company("Benchmark");
+        company.setEventSink(EventSink.NO_OP);
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            company.addVehicle(new Vehicle("MET-" + i, VehicleType.TAXI, "Driver " + i,
+                                           Location.of(random.nextInt(Location.GRID_SIZE), random.nextInt(Location.GRID_SIZE))));
+        }
+        for (int i = 0; i < FLEET_SIZE / 2; i++) {
+            new PassengerSource(company, random).requestPickup();
+        }
+        snapshot = company.snapshotMetrics();
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        long value = 1;
+
+        long next() {
+            value = value * 6364136223846793005L + 1442695040888963407L; // LCG spreads values over buckets
+            return value >>> 40;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void record(Values values) {
+        histogram.record(values.next());
+    }
+
+    @Benchmark
+    public Object snapshotMetrics() {
+        return company.snapshotMetrics();
+    }
+
+    @Benchmark
+    public String toPrometheusText() {
+        return snapshot.toPrometheusText();
+    }
+}
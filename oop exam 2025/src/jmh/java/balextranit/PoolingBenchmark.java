@@ -0,0 +1,71 @@
+package balextranit;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulates a day of demand on shuttle fleets of several sizes with and
+ * without ride pooling, in milliseconds per simulated day, which includes
+ * the cost of costing insertions. The lost fares and completed trips of
+ * the measured days are reported alongside.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class PoolingBenchmark {
+    private static final long REQUESTS = 200_000;
+    private static final double REQUESTS_PER_SECOND = 200_000 / 86_400.0;
+
+    @Param({"500", "1000", "2000"})
+    public int fleetSize;
+
+    @Param({"false", "true"})
+    public boolean pooling;
+
+    private FleetSimulator simulator;
+
+    /** Outcome of the simulated days, summed over the measured runs */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long lostFares;
+        public long completedTrips;
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        Random random = new Random(42);
+        Company company = new Company("Simulation");
+        company.setEventSink(EventSink.NO_OP);
+        company.setRidePooling(pooling);
+        for (int i = 0; i < fleetSize; i++) {
+            company.addVehicle(new Vehicle("POOL-" + i, VehicleType.SHUTTLE, "Driver " + i,
+                                           Location.of(random.nextInt(Location.GRID_SIZE), random.nextInt(Location.GRID_SIZE))));
+        }
+        simulator = new FleetSimulator(company, new PassengerSource(company, new UniformDemand(REQUESTS_PER_SECOND), random));
+    }
+
+    @Benchmark
+    public Object simulateDay(Outcome outcome) {
+        SimulationReport report = simulator.run(REQUESTS);
+        outcome.lostFares += report.getLostFares();
+        outcome.completedTrips += report.getCompletedTrips();
+        return report;
+    }
+}
@@ -0,0 +1,81 @@
+package balextranit;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the scenario runner over a sweep of shuttle counts for a fixed
+ * taxi fleet, then one scenario at increasing parallelism to show how it
+ * scales with cores, in milliseconds per set of runs. Parallelism above
+ * the machine's core count only measures the cost of oversubscription.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ScenarioBenchmark {
+    private static final int RUNS = 64;
+    private static final int TAXIS = 600;
+    private static final long REQUESTS = 20_000;
+    private static final double REQUESTS_PER_SECOND = 20_000 / 86_400.0;
+
+    @State(Scope.Thread)
+    public static class Sweep {
+        @Param({"0", "50", "100", "150", "200"})
+        public int shuttles;
+
+        ScenarioRunner runner;
+        Scenario scenario;
+
+        @Setup
+        public void setUp() {
+            runner = new ScenarioRunner(RUNS);
+            scenario = new Scenario(shuttles + " shuttles", TAXIS, shuttles, REQUESTS, REQUESTS_PER_SECOND);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Scaling {
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+
+        ForkJoinPool pool;
+        ScenarioRunner runner;
+        Scenario scenario;
+
+        @Setup
+        public void setUp() {
+            pool = new ForkJoinPool(parallelism);
+            runner = new ScenarioRunner(RUNS, pool);
+            scenario = new Scenario("Scaling", TAXIS, 100, REQUESTS, REQUESTS_PER_SECOND);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Object sweep(Sweep sweep) {
+        return sweep.runner.run(sweep.scenario, 42);
+    }
+
+    @Benchmark
+    public Object scaling(Scaling scaling) {
+        return scaling.runner.run(scaling.scenario, 42);
+    }
+}